@@ -0,0 +1,155 @@
+/*
+ *
+ *  * Copyright (c) 2022 - Manifold Systems LLC
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *       http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ *
+ */
+
+/*
+ * Manifold
+ */
+
+package manifold.ij.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import manifold.api.fs.IDirectory;
+import manifold.api.host.Dependency;
+import manifold.api.host.IModule;
+
+/**
+ * Reduces module classpaths with set algebra. Classpath entries are interned in a table shared by the modules, so each
+ * module's classpath is a bit set of entry indexes, and modules sharing a library share its {@link IDirectory}.
+ * <p/>
+ * A module's reduced classpath is its classpath minus the entries visible from each of its dependencies, where the
+ * entries visible from a module are its reduced classpath plus the entries visible from its exported dependencies.
+ * Dependencies are reduced first.
+ * <p/>
+ * A table lives for one pass over the modules. The bit sets only speed up the reduction: the reduced classpaths are
+ * still held as lists by the modules, so the table itself saves no memory once the pass is done. What lasts is the
+ * sharing of {@link IDirectory} instances, a later pass interns the entries of the kept modules first, see
+ * {@link #addReduced(IModule)}, so rebuilt modules share them too.
+ */
+class ClasspathTable
+{
+  private final Map<IDirectory, Integer> _indexes = new HashMap<>();
+  private final List<IDirectory> _entries = new ArrayList<>();
+  private final Map<IModule, BitSet> _reduced = new HashMap<>();
+
+  /**
+   * Use the classpath of {@code module} as is, it is already reduced.
+   */
+  void addReduced( IModule module )
+  {
+    _reduced.putIfAbsent( module, toBits( module.getJavaClassPath() ) );
+  }
+
+  /**
+   * Reduce the classpaths of {@code modules} and of their dependencies not yet reduced.
+   *
+   * @return The reduced classpath, in original order, of each module reduced by this call, dependencies first
+   */
+  Map<IModule, List<IDirectory>> reduce( Collection<? extends IModule> modules )
+  {
+    Map<IModule, List<IDirectory>> result = new LinkedHashMap<>();
+    for( IModule module: modules )
+    {
+      reduce( module, result );
+    }
+    return result;
+  }
+
+  private void reduce( IModule module, Map<IModule, List<IDirectory>> result )
+  {
+    if( _reduced.containsKey( module ) )
+    {
+      // already reduced, or being reduced (a dependency cycle)
+      return;
+    }
+
+    List<IDirectory> classpath = module.getJavaClassPath();
+    BitSet reduced = toBits( classpath );
+    // registered before the dependencies are reduced, a cycle sees the partially reduced classpath
+    _reduced.put( module, reduced );
+    for( Dependency dep: module.getDependencies() )
+    {
+      IModule depMod = dep.getModule();
+      reduce( depMod, result );
+      reduced.andNot( getVisible( depMod, new BitSet(), new HashSet<>() ) );
+    }
+
+    List<IDirectory> reducedClasspath = new ArrayList<>( reduced.cardinality() );
+    for( IDirectory dir: classpath )
+    {
+      int index = _indexes.get( dir );
+      if( reduced.get( index ) )
+      {
+        reducedClasspath.add( _entries.get( index ) );
+      }
+    }
+    result.put( module, reducedClasspath );
+  }
+
+  private BitSet getVisible( IModule module, BitSet result, Set<IModule> visited )
+  {
+    if( !visited.add( module ) )
+    {
+      return result;
+    }
+
+    BitSet reduced = _reduced.get( module );
+    if( reduced != null )
+    {
+      result.or( reduced );
+    }
+    for( Dependency dep: module.getDependencies() )
+    {
+      if( dep.isExported() )
+      {
+        getVisible( dep.getModule(), result, visited );
+      }
+    }
+    return result;
+  }
+
+  private BitSet toBits( List<IDirectory> classpath )
+  {
+    BitSet bits = new BitSet();
+    for( IDirectory dir: classpath )
+    {
+      bits.set( intern( dir ) );
+    }
+    return bits;
+  }
+
+  private int intern( IDirectory dir )
+  {
+    Integer index = _indexes.get( dir );
+    if( index == null )
+    {
+      index = _entries.size();
+      _entries.add( dir );
+      _indexes.put( dir, index );
+    }
+    return index;
+  }
+}
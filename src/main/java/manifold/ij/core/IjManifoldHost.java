@@ -78,7 +78,14 @@ public class IjManifoldHost extends AbstractManifoldHost
       throw new IllegalStateException( "Unrelated context: " + ctx + " belongs to project '" + manProject.getNativeProject().getName() + "', execting project '" + _project.getNativeProject().getName() + "'" );
     }
 
-    manProject.getFileModificationManager().getManRefresher().addTypeSystemListenerAsWeakRef( listener );
+    if( ctx instanceof ManModule )
+    {
+      manProject.getFileModificationManager().getManRefresher().addTypeSystemListenerAsWeakRef( listener, (ManModule)ctx );
+    }
+    else
+    {
+      manProject.getFileModificationManager().getManRefresher().addTypeSystemListenerAsWeakRef( listener );
+    }
   }
 
   @Override
@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -38,12 +39,15 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import manifold.api.fs.IDirectory;
 import manifold.api.fs.IFile;
 import manifold.api.fs.IFileSystem;
 import manifold.api.host.Dependency;
+import manifold.api.type.ContributorKind;
 import manifold.api.type.ITypeManifold;
 import manifold.api.type.ResourceFileTypeManifold;
 import manifold.api.type.TypeName;
@@ -62,12 +66,52 @@ import org.jetbrains.jps.model.java.compiler.JpsJavaCompilerOptions;
  */
 public class ManModule extends SimpleModule
 {
+  // bounds the memoized lookups of a module between refreshes, most are misses
+  private static final int MAX_TYPE_MANIFOLD_LOOKUPS = 1 << 14;
+
+  /**
+   * The type manifold filters {@link #findTypeManifoldsFor(String, TypeManifoldKind)} memoizes lookups for.
+   */
+  public enum TypeManifoldKind
+  {
+    /** Resolves the FQN from this module, searching its dependencies */
+    PrimaryOrPartial( tm -> tm.getContributorKind() == ContributorKind.Primary ||
+                            tm.getContributorKind() == ContributorKind.Partial, true ),
+    /** Whether this module itself extends the FQN, its dependencies are not searched */
+    Supplemental( tm -> tm.getContributorKind() == ContributorKind.Supplemental, false );
+
+    private final Predicate<ITypeManifold> _predicate;
+    private final boolean _searchDependencies;
+
+    TypeManifoldKind( Predicate<ITypeManifold> predicate, boolean searchDependencies )
+    {
+      _predicate = predicate;
+      _searchDependencies = searchDependencies;
+    }
+
+    public Predicate<ITypeManifold> getPredicate()
+    {
+      return _predicate;
+    }
+
+    public boolean isSearchDependencies()
+    {
+      return _searchDependencies;
+    }
+  }
+
   private final ManProject _manProject;
   private final Module _ijModule;
   private final List<Dependency> _dependencies;
   private final List<IDirectory> _excludedDirs;
   private URLClassLoader _typeManifoldClassLoader;
-  private final LocklessLazyVar<List<ManModule>> _modulesDependingOnMe;
+  private volatile List<ManModule> _modulesDependingOnMe;
+  private volatile List<ManModule> _visibleModules;
+  private volatile GlobalSearchScope _moduleWithDependenciesScope;
+  // file path -> types produced by the file
+  private final Map<String, String[]> _typesForFile;
+  private final Map<TypeManifoldKind, Map<String, Set<ITypeManifold>>> _typeManifoldLookups;
+  private final AtomicInteger _typeManifoldLookupsStamp;
   private final LocklessLazyVar<Boolean> _isExtEnabled;
   private final LocklessLazyVar<Boolean> _isStringsEnabled;
   private final LocklessLazyVar<Boolean> _isExceptionsEnabled;
@@ -84,12 +128,13 @@ public class ManModule extends SimpleModule
     _manProject = manProject;
     _excludedDirs = excludedDirs;
     _dependencies = new ArrayList<>();
-    _modulesDependingOnMe = LocklessLazyVar.make(
-      () -> {
-        LinkedHashSet<Module> result = new LinkedHashSet<>();
-        ModuleUtilCore.collectModulesDependsOn( getIjModule(), result );
-        return result.stream().map( ManProject::getModule ).collect( Collectors.toList() );
-      } );
+    _typesForFile = new ConcurrentHashMap<>();
+    _typeManifoldLookups = new EnumMap<>( TypeManifoldKind.class );
+    for( TypeManifoldKind kind: TypeManifoldKind.values() )
+    {
+      _typeManifoldLookups.put( kind, new ConcurrentHashMap<>() );
+    }
+    _typeManifoldLookupsStamp = new AtomicInteger();
     _isExtEnabled = LocklessLazyVar.make( () -> hasJar( "manifold-ext-rt" ) || hasJar( "manifold-all" ) );
     _isStringsEnabled = LocklessLazyVar.make( () -> hasJar( "manifold-strings" ) || hasJar( "manifold-all" ) );
     _isExceptionsEnabled = LocklessLazyVar.make( () -> hasJar( "manifold-exceptions" ) || hasJar( "manifold-all" ) );
@@ -145,6 +190,81 @@ public class ManModule extends SimpleModule
   void addDependency( Dependency dependency )
   {
     _dependencies.add( dependency );
+    invalidateVisibleModules();
+  }
+
+  /**
+   * @return This module followed by the modules visible from it in depth-first order: its direct dependencies and,
+   * transitively, their exported dependencies. This is the order in which types are searched from this module.
+   */
+  public List<ManModule> getVisibleModules()
+  {
+    List<ManModule> visibleModules = _visibleModules;
+    if( visibleModules == null )
+    {
+      LinkedHashSet<ManModule> result = new LinkedHashSet<>();
+      collectVisibleModules( this, result );
+      _visibleModules = visibleModules = Collections.unmodifiableList( new ArrayList<>( result ) );
+    }
+    return visibleModules;
+  }
+  private void collectVisibleModules( ManModule root, Set<ManModule> result )
+  {
+    if( !result.add( this ) )
+    {
+      // already visited, also prevents cycles
+      return;
+    }
+
+    for( Dependency d: getDependencies() )
+    {
+      if( this == root || d.isExported() )
+      {
+        ((ManModule)d.getModule()).collectVisibleModules( root, result );
+      }
+    }
+  }
+
+  private List<ManModule> getModulesDependingOnMe()
+  {
+    List<ManModule> modulesDependingOnMe = _modulesDependingOnMe;
+    if( modulesDependingOnMe == null )
+    {
+      LinkedHashSet<Module> result = new LinkedHashSet<>();
+      ModuleUtilCore.collectModulesDependsOn( getIjModule(), result );
+      _modulesDependingOnMe = modulesDependingOnMe =
+        result.stream().map( ManProject::getModule ).collect( Collectors.toList() );
+    }
+    return modulesDependingOnMe;
+  }
+
+  /**
+   * Drop the modules depending on this one, they are recomputed on demand. Call this when modules depending on this
+   * one are added, removed, or rebuilt.
+   */
+  void invalidateModulesDependingOnMe()
+  {
+    _modulesDependingOnMe = null;
+  }
+
+  public GlobalSearchScope getModuleWithDependenciesScope()
+  {
+    GlobalSearchScope scope = _moduleWithDependenciesScope;
+    if( scope == null )
+    {
+      _moduleWithDependenciesScope = scope = GlobalSearchScope.moduleWithDependenciesScope( getIjModule() );
+    }
+    return scope;
+  }
+
+  /**
+   * Drop the tables derived from module dependencies, they are rebuilt on demand.
+   */
+  public void invalidateVisibleModules()
+  {
+    _visibleModules = null;
+    _moduleWithDependenciesScope = null;
+    clearTypeManifoldLookups();
   }
 
   @Override
@@ -201,6 +321,71 @@ public class ManModule extends SimpleModule
   {
     return findTypeManifoldsFor( fqn, predicate, this, new HashSet<>() );
   }
+
+  /**
+   * Same as {@link #findTypeManifoldsFor(String, Predicate)}, but the result is memoized, including an empty result.
+   * A kind that does not search dependencies is the same as {@link #super_findTypeManifoldsFor(String, Predicate)}.
+   * Lookups are invalidated:
+   * <ul>
+   * <li>when a file changes, for the file's module and the modules depending on it, see
+   * {@link #invalidateTypeManifoldLookups()}</li>
+   * <li>on a full refresh, for all modules</li>
+   * <li>when a dependency is added, and when {@link ManProject#update()} replaces a module this module sees, see
+   * {@link #invalidateVisibleModules()}</li>
+   * </ul>
+   * A module whose own roots or dependencies change is rebuilt by {@link ManProject#update()} and starts with no
+   * lookups.
+   *
+   * @return An unmodifiable set of the type manifolds responsible for producing the type corresponding with FQN
+   */
+  public Set<ITypeManifold> findTypeManifoldsFor( String fqn, TypeManifoldKind kind )
+  {
+    Map<String, Set<ITypeManifold>> lookups = _typeManifoldLookups.get( kind );
+    Set<ITypeManifold> tms = lookups.get( fqn );
+    if( tms == null )
+    {
+      int stamp = _typeManifoldLookupsStamp.get();
+      tms = kind.isSearchDependencies()
+            ? findTypeManifoldsFor( fqn, kind.getPredicate() )
+            : super.findTypeManifoldsFor( fqn, kind.getPredicate() );
+      tms = tms.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet( tms );
+      if( lookups.size() >= MAX_TYPE_MANIFOLD_LOOKUPS )
+      {
+        lookups.clear();
+      }
+      lookups.put( fqn, tms );
+      // a lookup made while invalidating may be stale, don't keep it. The invalidation bumps the stamp before it
+      // clears, so either it clears this entry or the stamp has moved here.
+      if( stamp != _typeManifoldLookupsStamp.get() )
+      {
+        lookups.remove( fqn, tms );
+      }
+    }
+    return tms;
+  }
+
+  /**
+   * Drop the memoized lookups of this module and of the modules depending on it, since FQNs are resolved from a module
+   * by searching its dependencies. Call this when types may have been added or removed in this module.
+   */
+  public void invalidateTypeManifoldLookups()
+  {
+    clearTypeManifoldLookups();
+    for( ManModule module: getModulesDependingOnMe() )
+    {
+      if( module != null )
+      {
+        module.clearTypeManifoldLookups();
+      }
+    }
+  }
+
+  public void clearTypeManifoldLookups()
+  {
+    _typeManifoldLookupsStamp.incrementAndGet();
+    _typeManifoldLookups.values().forEach( Map::clear );
+  }
+
   private Set<ITypeManifold> findTypeManifoldsFor( String fqn, Predicate<ITypeManifold> predicate, ManModule root, HashSet<ManModule> visited )
   {
     if( visited.contains( this ) )
@@ -255,7 +440,7 @@ public class ManModule extends SimpleModule
       ManModule module = ManProject.getModule( moduleForFile );
       if( module != null )
       {
-        modules = module._modulesDependingOnMe.get();
+        modules = module.getModulesDependingOnMe();
       }
       else
       {
@@ -371,11 +556,32 @@ public class ManModule extends SimpleModule
     return all;
   }
 
+  /**
+   * @return The types {@code file} produces in this module. The result is indexed by file, refresh requests for the file
+   * drop its entry, see {@link #removeTypesForFile(IFile)}.
+   */
   public String[] getTypesForFile( IFile file )
   {
-    Set<String> result = new LinkedHashSet<>();
+    String path = file.getPath().getPathString();
+    String[] types = _typesForFile.get( path );
+    if( types == null )
+    {
+      Set<String> result = new LinkedHashSet<>();
+      addTypesForFile( file, getTypeManifolds(), result );
+      types = result.toArray( new String[0] );
+      _typesForFile.put( path, types );
+    }
+    return types;
+  }
+
+  /**
+   * Add the types {@code file} produces from {@code tms}, computed from scratch, along with the names from the file's
+   * path.
+   */
+  public void addTypesForFile( IFile file, Collection<ITypeManifold> tms, Set<String> result )
+  {
     addFromPath( file, result );
-    for( ITypeManifold sp : getTypeManifolds() )
+    for( ITypeManifold sp : tms )
     {
       result.addAll( Arrays.asList( sp.getTypesForFile( file ) ) );
 
@@ -384,7 +590,21 @@ public class ManModule extends SimpleModule
         result.addAll( ((IExtensionClassProducer)sp).getExtendedTypesForFile( file ) );
       }
     }
-    return result.toArray( new String[0] );
+  }
+
+  /**
+   * Drop the indexed types of {@code file}, call this when the file changes.
+   *
+   * @return The types the file produced before the change, null if not indexed
+   */
+  public String[] removeTypesForFile( IFile file )
+  {
+    return _typesForFile.remove( file.getPath().getPathString() );
+  }
+
+  public void clearTypesForFile()
+  {
+    _typesForFile.clear();
   }
 
   // Add names from path and current file name.  This is essential for cases
@@ -419,45 +639,9 @@ public class ManModule extends SimpleModule
   }
 
   /** reduce redundancy, remove paths that exist in dependencies */
-  void reduceClasspath( Set<ManModule> visited )
+  static void reduceClasspaths( ClasspathTable table, Collection<ManModule> modules )
   {
-    if( visited.contains( this ) )
-    {
-      return;
-    }
-    visited.add( this );
-
-    List<IDirectory> classpath = getJavaClassPath();
-    for( Dependency dep: getDependencies() )
-    {
-      ManModule depMod = (ManModule)dep.getModule();
-      depMod.reduceClasspath( visited );
-      classpath.removeIf( depMod::hasPath );
-    }
-
-    setJavaClassPath( classpath );
-  }
-
-  private boolean hasPath( IDirectory directory )
-  {
-    List<IDirectory> classpath = getJavaClassPath();
-    if( classpath.contains( directory ) )
-    {
-      return true;
-    }
-
-    for( Dependency dep: getDependencies() )
-    {
-      if( dep.isExported() )
-      {
-        ManModule depMod = (ManModule)dep.getModule();
-        if( depMod.hasPath( directory ) )
-        {
-          return true;
-        }
-      }
-    }
-    return false;
+    table.reduce( modules ).forEach( ( module, classpath ) -> ((ManModule)module).setJavaClassPath( classpath ) );
   }
 
   public boolean isExtEnabled()
@@ -25,15 +25,19 @@ import com.intellij.codeInsight.daemon.impl.HighlightVisitor;
 import com.intellij.codeInsight.daemon.impl.analysis.HighlightVisitorImpl;
 import com.intellij.compiler.CompilerConfiguration;
 import com.intellij.compiler.impl.javaCompiler.javac.JavacConfiguration;
+import com.intellij.concurrency.JobLauncher;
 import com.intellij.lang.java.JavaLanguage;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.compiler.CompilerPaths;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.EditorFactory;
 import com.intellij.openapi.fileEditor.*;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.module.ModuleUtil;
 import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.projectRoots.Sdk;
 import com.intellij.openapi.roots.DependencyScope;
@@ -53,14 +57,11 @@ import com.intellij.psi.PsiManager;
 import com.intellij.psi.impl.PsiDocumentTransactionListener;
 import com.intellij.testFramework.LightVirtualFile;
 import com.intellij.util.PlatformUtils;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.messages.MessageBusConnection;
 import java.io.File;
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
-import java.util.jar.Attributes;
-import java.util.jar.JarFile;
-import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 import manifold.api.fs.IDirectory;
 import manifold.api.fs.IFileUtil;
@@ -73,6 +74,7 @@ import manifold.ij.fs.IjFile;
 import manifold.ij.fs.IjFileSystem;
 import manifold.ij.license.CheckLicense;
 import manifold.ij.psi.ManLightMethodBuilder;
+import manifold.ij.util.FP64;
 import manifold.ij.util.MessageUtil;
 import manifold.ij.util.ReparseUtil;
 import manifold.preprocessor.definitions.ServiceDefinitions;
@@ -87,6 +89,7 @@ import org.jetbrains.jps.model.java.compiler.JpsJavaCompilerOptions;
  */
 public class ManProject
 {
+  private static final Logger LOG = Logger.getInstance( ManProject.class );
   private static final Map<Project, ManProject> PROJECTS = new ConcurrentWeakHashMap<>();
   private static final String JAR_INDICATOR = ".jar!";
   static final String XPLUGIN_MANIFOLD = "-Xplugin:Manifold";
@@ -96,7 +99,9 @@ public class ManProject
   private final Project _ijProject;
   private boolean _manInUse;
   private IjFileSystem _fs;
-  private LockingLazyVar<Map<Module, ManModule>> _modules;
+  private volatile LockingLazyVar<Map<Module, ManModule>> _modules;
+  // guards replacing _modules
+  private final Object _modulesLock = new Object();
   private MessageBusConnection _projectConnection;
   private MessageBusConnection _applicationConnection;
   private MessageBusConnection _permanentProjectConnection;
@@ -104,6 +109,7 @@ public class ManProject
   private ManifoldPsiClassCache _psiClassCache;
   private LocklessLazyVar<Set<ManModule>> _rootModules;
   private boolean _hasNamedModule;
+  private Map<Module, FP64> _moduleSignatures;
 
   @SuppressWarnings("unused")
   public static Collection<ManProject> getAllProjects()
@@ -421,17 +427,282 @@ public class ManProject
   {
     ApplicationManager.getApplication().runReadAction(
       () -> {
-        if( _modules == null || _modules.isLoaded() ) // prevent double reset()
+        synchronized( _modulesLock )
         {
+          if( _modules != null && !_modules.isLoaded() ) // prevent double reset()
+          {
+            return;
+          }
           init();
+        }
+
+        reparseOpenFilesForPreprocessor();
+
+        getFileModificationManager().invalidateFileFilter();
+        getFileModificationManager().getManRefresher().nukeFromOrbit();
+      } );
+  }
+
+  /**
+   * Update the modules after module roots change or modules are added or removed. Only the modules whose roots,
+   * classpath, or dependencies changed are rebuilt, along with the modules depending on them, directly or not. The
+   * other modules are kept along with their type manifolds and caches. A full {@link #reset()} is done instead if the
+   * modules are not yet defined or if the project starts or stops using manifold. A PSI roots change is handled here too,
+   * an update finding no changed module keeps everything.
+   * <p/>
+   * This is usually called from a write action, so it only schedules the rebuild. The modules are rebuilt off the EDT in
+   * a non-blocking read action, which a write action restarts, and published at its end. Until then lookups use the
+   * prior modules. In unit-test mode the modules are rebuilt immediately.
+   */
+  public void update()
+  {
+    ApplicationManager.getApplication().runReadAction(
+      () -> {
+        if( _modules == null || !_manInUse ||
+          _manInUse != ManLibraryChecker.instance().isUsingManifoldJars( _ijProject ) )
+        {
+          reset();
+          return;
+        }
+        if( !_modules.isLoaded() )
+        {
+          // not yet defined, the modules will reflect the change when they are
+          return;
+        }
 
-          reparseOpenFilesForPreprocessor();
+        getFileModificationManager().invalidateFileFilter();
 
-          getFileModificationManager().getManRefresher().nukeFromOrbit();
+        if( ApplicationManager.getApplication().isUnitTestMode() )
+        {
+          updateModules();
+          return;
         }
+
+        ReadAction.nonBlocking( this::updateModules )
+          .expireWith( _ijProject )
+          .coalesceBy( this )
+          .submit( AppExecutorUtil.getAppExecutorService() );
       } );
   }
 
+  /**
+   * Rebuild the modules that changed, publish them, and notify listeners of the modules replaced
+   */
+  private void updateModules()
+  {
+    LockingLazyVar<Map<Module, ManModule>> priorModules = _modules;
+    if( priorModules == null || !priorModules.isLoaded() )
+    {
+      return;
+    }
+
+    Map<Module, ManModule> modules = priorModules.get();
+    Module[] allIjModules = ModuleManager.getInstance( _ijProject ).getModules();
+
+    Map<Module, FP64> signatures = new HashMap<>();
+    Set<Module> changed = new HashSet<>();
+    for( Module ijModule: allIjModules )
+    {
+      FP64 signature = makeSignature( ijModule );
+      signatures.put( ijModule, signature );
+      if( !modules.containsKey( ijModule ) || !signature.equals( _moduleSignatures.get( ijModule ) ) )
+      {
+        changed.add( ijModule );
+      }
+    }
+    Set<ManModule> replaced = new HashSet<>();
+    modules.forEach( ( ijModule, module ) -> {
+      if( !signatures.containsKey( ijModule ) )
+      {
+        replaced.add( module );
+      }
+    } );
+    if( changed.isEmpty() && replaced.isEmpty() )
+    {
+      return;
+    }
+
+    // a module's classpath is reduced by its dependencies' classpaths, so dependents are rebuilt too
+    Set<Module> affected = collectDependents( allIjModules, changed );
+
+    List<Module> toDefine = new ArrayList<>();
+    for( Module ijModule: allIjModules )
+    {
+      ManModule module = modules.get( ijModule );
+      if( module == null || affected.contains( ijModule ) )
+      {
+        if( module != null )
+        {
+          replaced.add( module );
+        }
+        toDefine.add( ijModule );
+      }
+    }
+    List<ManModule> created = defineModules( toDefine );
+    Map<Module, ManModule> createdByIjModule = new HashMap<>();
+    for( int i = 0; i < toDefine.size(); i++ )
+    {
+      createdByIjModule.put( toDefine.get( i ), created.get( i ) );
+    }
+
+    Map<Module, ManModule> newModules = new LinkedHashMap<>();
+    boolean hasNamedModule = false;
+    for( Module ijModule: allIjModules )
+    {
+      ManModule module = createdByIjModule.get( ijModule );
+      newModules.put( ijModule, module == null ? modules.get( ijModule ) : module );
+      hasNamedModule = hasNamedModule || isNamedModule( ijModule );
+    }
+
+    for( ManModule module: created )
+    {
+      addModuleDependencies( newModules, module );
+    }
+
+    // the classpaths of kept modules are already reduced
+    ClasspathTable classpathTable = new ClasspathTable();
+    Set<ManModule> createdSet = new HashSet<>( created );
+    for( ManModule module: newModules.values() )
+    {
+      if( !createdSet.contains( module ) )
+      {
+        classpathTable.addReduced( module );
+      }
+    }
+    ManModule.reduceClasspaths( classpathTable, created );
+
+    for( ManModule module: created )
+    {
+      module.initializeTypeManifolds();
+    }
+
+    // publish in this read action after the last cancellation check, a write action cannot intervene
+    ProgressManager.checkCanceled();
+    synchronized( _modulesLock )
+    {
+      if( _modules != priorModules )
+      {
+        // reset or updated meanwhile
+        return;
+      }
+
+      for( ManModule module: newModules.values() )
+      {
+        module.invalidateModulesDependingOnMe();
+        if( !createdSet.contains( module ) && dependsOnAny( module, replaced ) )
+        {
+          module.invalidateVisibleModules();
+        }
+      }
+
+      _hasNamedModule = hasNamedModule;
+      _moduleSignatures = signatures;
+      LockingLazyVar<Map<Module, ManModule>> updatedModules = LockingLazyVar.make( () -> newModules );
+      updatedModules.get();
+      _modules = updatedModules;
+      _rootModules = assignRootModuleLazy();
+    }
+
+    addCompilerArgs();
+
+    if( !replaced.isEmpty() )
+    {
+      reparseOpenFilesForPreprocessor();
+      getFileModificationManager().getManRefresher().modulesReplaced( replaced );
+    }
+  }
+
+  private static boolean dependsOnAny( ManModule module, Set<ManModule> modules )
+  {
+    for( ManModule visible: module.getVisibleModules() )
+    {
+      if( modules.contains( visible ) )
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return A fingerprint of what defines {@code ijModule}: its roots, classpath, and dependencies. A library jar is
+   * fingerprinted by its path, length and modification time, so a jar rebuilt in place changes the signature.
+   */
+  FP64 makeSignature( Module ijModule )
+  {
+    FP64 signature = new FP64( ijModule.getName() );
+    for( VirtualFile root: getSourceRoots( ijModule ) )
+    {
+      signature.extend( root.getUrl() );
+    }
+    signature.extend( '|' );
+    for( VirtualFile root: getExcludedRoots( ijModule ) )
+    {
+      signature.extend( root.getUrl() );
+    }
+    signature.extend( '|' );
+    VirtualFile outputPath = CompilerPaths.getModuleOutputDirectory( ijModule, false );
+    signature.extend( outputPath == null ? "" : outputPath.getUrl() );
+    // the test output is not part of the module, but changing it must still reach the file filter
+    VirtualFile testOutputPath = CompilerPaths.getModuleOutputDirectory( ijModule, true );
+    signature.extend( testOutputPath == null ? "" : testOutputPath.getUrl() );
+    signature.extend( '|' );
+    signature.extend( CompilerConfiguration.getInstance( _ijProject ).getAnnotationProcessingConfiguration( ijModule ).getProcessorPath() );
+    signature.extend( '|' );
+    for( OrderEntry entry: ModuleRootManager.getInstance( ijModule ).getOrderEntries() )
+    {
+      if( entry instanceof LibraryOrderEntry )
+      {
+        signature.extend( ((LibraryOrderEntry)entry).getScope().name() );
+        Library lib = ((LibraryOrderEntry)entry).getLibrary();
+        if( lib != null )
+        {
+          for( VirtualFile virtualFile: lib.getFiles( OrderRootType.CLASSES ) )
+          {
+            File file = new File( stripExtraCharacters( virtualFile.getPath() ) );
+            signature.extend( file.getAbsolutePath() );
+            signature.extend( file.length() );
+            signature.extend( file.lastModified() );
+          }
+        }
+        signature.extend( '|' );
+      }
+      else if( entry instanceof ModuleOrderEntry )
+      {
+        ModuleOrderEntry moduleEntry = (ModuleOrderEntry)entry;
+        signature.extend( moduleEntry.getModuleName() );
+        signature.extend( moduleEntry.getScope().name() );
+        signature.extend( moduleEntry.isExported() ? 1 : 0 );
+        signature.extend( '|' );
+      }
+    }
+    return signature;
+  }
+
+  private static Set<Module> collectDependents( Module[] allIjModules, Set<Module> modules )
+  {
+    Map<Module, List<Module>> dependents = new HashMap<>();
+    for( Module ijModule: allIjModules )
+    {
+      for( Module child: ModuleRootManager.getInstance( ijModule ).getDependencies() )
+      {
+        dependents.computeIfAbsent( child, k -> new ArrayList<>() ).add( ijModule );
+      }
+    }
+
+    Set<Module> result = new HashSet<>();
+    Deque<Module> stack = new ArrayDeque<>( modules );
+    while( !stack.isEmpty() )
+    {
+      Module ijModule = stack.pop();
+      if( result.add( ijModule ) )
+      {
+        stack.addAll( dependents.getOrDefault( ijModule, Collections.emptyList() ) );
+      }
+    }
+    return result;
+  }
+
   private void reparseOpenFilesForPreprocessor()
   {
     if( BuildVariantSymbols.INSTANCE != null ) // this means preprocessor is used and symbol providers were accessed
@@ -463,7 +734,8 @@ public class ManProject
 
   public Map<Module, ManModule> getModules()
   {
-    return _modules == null ? null : _modules.get();
+    LockingLazyVar<Map<Module, ManModule>> modules = _modules;
+    return modules == null ? null : modules.get();
   }
 
   void projectOpened()
@@ -769,12 +1041,19 @@ public class ManProject
     ModuleManager moduleManager = ModuleManager.getInstance( _ijProject );
     Module[] allIjModules = moduleManager.getModules();
 
+    long start = System.nanoTime();
+
     // create modules
+    List<ManModule> defined = defineModules( Arrays.asList( allIjModules ) );
+    long definedTime = System.nanoTime() - start;
     Map<Module, ManModule> modules = new HashMap<>();
     Map<Module, ManModule> allModules = new LinkedHashMap<>();
-    for( Module ijModule: allIjModules )
+    Map<Module, FP64> signatures = new HashMap<>();
+    for( int i = 0; i < allIjModules.length; i++ )
     {
-      final ManModule module = defineModule( ijModule );
+      Module ijModule = allIjModules[i];
+      signatures.put( ijModule, makeSignature( ijModule ) );
+      final ManModule module = defined.get( i );
       modules.put( ijModule, module );
       allModules.put( ijModule, module );
       _hasNamedModule = _hasNamedModule || isNamedModule( ijModule );
@@ -787,11 +1066,7 @@ public class ManProject
     }
 
     // reduce classpaths
-    Set<ManModule> visited = new HashSet<>();
-    for( ManModule manModule: allModules.values() )
-    {
-      manModule.reduceClasspath( visited );
-    }
+    ManModule.reduceClasspaths( new ClasspathTable(), allModules.values() );
 
     // finally, initialize the type manifolds for each module
     for( ManModule manModule: allModules.values() )
@@ -801,9 +1076,52 @@ public class ManProject
 
     addCompilerArgs();
 
+    _moduleSignatures = signatures;
+    LOG.info( "Manifold defined " + allIjModules.length + " modules in " + (System.nanoTime() - start) / 1_000_000 +
+              "ms, creating them took " + definedTime / 1_000_000 + "ms" );
     return allModules;
   }
 
+  /**
+   * Create the modules. Resolving their paths scans the file system and jars, it is independent per module and runs
+   * concurrently, the tasks in a read action if this thread holds one. The modules are then constructed sequentially
+   * from the resolved paths, constructing a module is not thread-safe. Under a write action the paths are resolved
+   * sequentially too, since the pool's threads could not acquire a read action until it completes.
+   *
+   * @return The modules in the order of {@code ijModules}
+   */
+  private List<ManModule> defineModules( List<Module> ijModules )
+  {
+    ModulePaths[] paths = new ModulePaths[ijModules.size()];
+    if( paths.length < 2 || ApplicationManager.getApplication().isWriteAccessAllowed() )
+    {
+      for( int i = 0; i < paths.length; i++ )
+      {
+        paths[i] = resolvePaths( ijModules.get( i ) );
+      }
+    }
+    else
+    {
+      List<Integer> indexes = new ArrayList<>( paths.length );
+      for( int i = 0; i < paths.length; i++ )
+      {
+        indexes.add( i );
+      }
+      JobLauncher.getInstance().invokeConcurrentlyUnderProgress( indexes,
+        ProgressManager.getInstance().getProgressIndicator(), i -> {
+          paths[i] = resolvePaths( ijModules.get( i ) );
+          return true;
+        } );
+    }
+
+    List<ManModule> modules = new ArrayList<>( paths.length );
+    for( int i = 0; i < paths.length; i++ )
+    {
+      modules.add( createModule( ijModules.get( i ), paths[i] ) );
+    }
+    return modules;
+  }
+
   private void addModuleDependencies( Map<Module, ManModule> modules, ManModule manModule )
   {
     Module ijModule = manModule.getIjModule();
@@ -841,15 +1159,27 @@ public class ManProject
 
   private ManModule defineModule( Module ijModule )
   {
-    List<VirtualFile> sourceFolders = getSourceRoots( ijModule );
-    VirtualFile outputPath = CompilerPaths.getModuleOutputDirectory( ijModule, false );
-    return createModule( ijModule, getInitialClasspaths( ijModule ),
-      sourceFolders.stream().map( this::toDirectory ).collect( Collectors.toCollection( () -> new LinkedHashSet<>() ) ),
-      outputPath == null ? null : getFileSystem().getIDirectory( outputPath ) );
+    return createModule( ijModule, resolvePaths( ijModule ) );
   }
 
-  private ManModule createModule( Module ijModule, Set<IDirectory> classpath, Set<IDirectory> sourcePaths, IDirectory outputPath )
+  private ManModule createModule( Module ijModule, ModulePaths paths )
   {
+    return new ManModule( this, ijModule, new ArrayList<>( paths._classpath ), new ArrayList<>( paths._sourceRoots ),
+      Collections.singletonList( paths._outputPath ), paths._excludedDirs );
+  }
+
+  /**
+   * Safe to call concurrently for different modules in a read action
+   */
+  private ModulePaths resolvePaths( Module ijModule )
+  {
+    List<VirtualFile> sourceFolders = getSourceRoots( ijModule );
+    VirtualFile outputDir = CompilerPaths.getModuleOutputDirectory( ijModule, false );
+    Set<IDirectory> classpath = getInitialClasspaths( ijModule );
+    Set<IDirectory> sourcePaths =
+      sourceFolders.stream().map( this::toDirectory ).collect( Collectors.toCollection( () -> new LinkedHashSet<>() ) );
+    IDirectory outputPath = outputDir == null ? null : getFileSystem().getIDirectory( outputDir );
+
     // Expand path to include processorPath (type manifolds can be listed there exclusively)
     classpath = addProcessorPath( ijModule, classpath );
 
@@ -858,10 +1188,29 @@ public class ManProject
     sourcePaths = addFromManifestClassPath( sourcePaths );
 
     // Scan....
-    List<IDirectory> sourceRoots = new ArrayList<>( sourcePaths );
+    Set<IDirectory> sourceRoots = new LinkedHashSet<>( sourcePaths );
     scanPaths( classpath, sourceRoots );
 
-    return new ManModule( this, ijModule, new ArrayList<>( classpath ), sourceRoots, Collections.singletonList( outputPath ), getExcludedFolders( ijModule ) );
+    return new ModulePaths( classpath, sourceRoots, outputPath, getExcludedFolders( ijModule ) );
+  }
+
+  /**
+   * The paths of a module resolved before it is constructed
+   */
+  private static class ModulePaths
+  {
+    private final Set<IDirectory> _classpath;
+    private final Set<IDirectory> _sourceRoots;
+    private final IDirectory _outputPath;
+    private final List<IDirectory> _excludedDirs;
+
+    ModulePaths( Set<IDirectory> classpath, Set<IDirectory> sourceRoots, IDirectory outputPath, List<IDirectory> excludedDirs )
+    {
+      _classpath = classpath;
+      _sourceRoots = sourceRoots;
+      _outputPath = outputPath;
+      _excludedDirs = excludedDirs;
+    }
   }
 
   private Set<IDirectory> addProcessorPath( Module ijModule, Set<IDirectory> classpath )
@@ -883,18 +1232,15 @@ public class ManProject
     return classpath;
   }
 
-  private static void scanPaths( Set<IDirectory> paths, List<IDirectory> roots )
+  private static void scanPaths( Set<IDirectory> paths, Set<IDirectory> roots )
   {
     //noinspection Convert2streamapi
     for( IDirectory root: paths )
     {
       // roots without manifests are considered source roots
-      if( IFileUtil.hasSourceFiles( root ) )
+      if( !roots.contains( root ) && IFileUtil.hasSourceFiles( root ) )
       {
-        if( !roots.contains( root ) )
-        {
-          roots.add( root );
-        }
+        roots.add( root );
       }
     }
   }
@@ -942,36 +1288,14 @@ public class ManProject
       }
       if( root instanceof JarFileDirectoryImpl )
       {
-        JarFile jarFile = ((JarFileDirectoryImpl)root).getJarFile();
-        Manifest manifest = jarFile.getManifest();
-        if( manifest != null )
+        // Add the paths of the Jar's Class-Path listing, if any, cached per Jar.
+        // Note a Class-Path listing sometimes happens when running from IntelliJ where the
+        // classpath would otherwise make the command line to java.exe
+        // too long.
+        for( File dirOrJar: ManifestClassPathCache.instance().getClassPath( (JarFileDirectoryImpl)root ) )
         {
-          Attributes man = manifest.getMainAttributes();
-          String paths = man.getValue( Attributes.Name.CLASS_PATH );
-          if( paths != null && !paths.isEmpty() )
-          {
-            // We found a Jar with a Class-Path listing.
-            // Note sometimes happens when running from IntelliJ where the
-            // classpath would otherwise make the command line to java.exe
-            // too long.
-            for( String j: paths.split( " " ) )
-            {
-              // Add each of the paths to our classpath
-              URL url;
-              try
-              {
-                url = new URL( j );
-              }
-              catch( MalformedURLException e )
-              {
-                //Class-Path contained an invalid URL, skip it
-                continue;
-              }
-              File dirOrJar = new File( url.toURI() );
-              IDirectory idir = getFileSystem().getIDirectory( dirOrJar );
-              newClasspath.add( idir );
-            }
-          }
+          // Add each of the paths to our classpath
+          newClasspath.add( getFileSystem().getIDirectory( dirOrJar ) );
         }
       }
     }
@@ -26,6 +26,7 @@ import com.intellij.lang.LanguageBraceMatching;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import manifold.ij.extensions.ManifoldPsiClassAnnotator;
+import manifold.ij.extensions.TypeCacheWarmer;
 import manifold.ij.template.ManTemplateBraceMatcher;
 import manifold.ij.template.ManTemplateLanguage;
 import org.jetbrains.annotations.NotNull;
@@ -40,6 +41,8 @@ public class ManStartupActivity implements com.intellij.openapi.startup.StartupA
     initForAllProjects();
 
     ApplicationManager.getApplication().runReadAction( () -> ManProject.manProjectFrom( project ).projectOpened() );
+
+    TypeCacheWarmer.warmUp( project );
   }
 
   /**
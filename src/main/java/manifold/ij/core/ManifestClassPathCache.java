@@ -0,0 +1,268 @@
+/*
+ *
+ *  * Copyright (c) 2022 - Manifold Systems LLC
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *       http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ *
+ */
+
+/*
+ * Manifold
+ */
+
+package manifold.ij.core;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import manifold.api.fs.jar.JarFileDirectoryImpl;
+
+/**
+ * Caches the paths listed in the Class-Path attribute of jar manifests, which {@link ManProject} adds to module
+ * classpaths. A jar shared by many modules is then read once instead of once per
+ * module each time the modules are defined. An entry is valid while the jar's size and modification time are
+ * unchanged. The cache is kept in memory and persisted in the IDE's system directory so it survives restarts, entries
+ * of jars no longer on disk are pruned when it is loaded.
+ */
+class ManifestClassPathCache
+{
+  private static final Logger LOG = Logger.getInstance( ManifestClassPathCache.class );
+
+  private static final String FORMAT_VERSION = "1";
+  private static final ManifestClassPathCache INSTANCE = new ManifestClassPathCache();
+
+  static ManifestClassPathCache instance()
+  {
+    return INSTANCE;
+  }
+
+  private final Path _file;
+  private final Map<String, Entry> _entries;
+  private final AtomicBoolean _saveScheduled;
+
+  private ManifestClassPathCache()
+  {
+    _file = Paths.get( PathManager.getSystemPath(), "manifold", "manifest-classpath.txt" );
+    _entries = new ConcurrentHashMap<>();
+    _saveScheduled = new AtomicBoolean();
+    load();
+  }
+
+  /**
+   * @return The files and directories listed in the Class-Path attribute of {@code jarDir}'s manifest, in order. Empty
+   * if the jar has no manifest or no Class-Path attribute. Entries that are not absolute URLs are skipped.
+   */
+  List<File> getClassPath( JarFileDirectoryImpl jarDir )
+  {
+    File jar = jarDir.toJavaFile();
+    String key = jar.getAbsolutePath();
+    long size = jar.length();
+    long modified = jar.lastModified();
+    Entry entry = _entries.get( key );
+    if( entry == null || entry._size != size || entry._modified != modified )
+    {
+      List<String> paths = readClassPath( jarDir );
+      if( paths == null )
+      {
+        return Collections.emptyList();
+      }
+      entry = new Entry( size, modified, paths );
+      _entries.put( key, entry );
+      scheduleSave();
+    }
+
+    List<File> classpath = new ArrayList<>( entry._paths.size() );
+    for( String path: entry._paths )
+    {
+      classpath.add( new File( path ) );
+    }
+    return classpath;
+  }
+
+  /**
+   * @return The paths from the manifest's Class-Path attribute, or null if the manifest cannot be read
+   */
+  private static List<String> readClassPath( JarFileDirectoryImpl jarDir )
+  {
+    Manifest manifest;
+    try
+    {
+      manifest = jarDir.getJarFile().getManifest();
+    }
+    catch( IOException e )
+    {
+      LOG.warn( "Failed to read manifest of: " + jarDir.toJavaFile(), e );
+      return null;
+    }
+    if( manifest == null )
+    {
+      return Collections.emptyList();
+    }
+
+    return parseClassPath( manifest.getMainAttributes().getValue( Attributes.Name.CLASS_PATH ) );
+  }
+
+  /**
+   * @return The absolute paths of the file URLs in a Class-Path attribute value, other entries are skipped
+   */
+  static List<String> parseClassPath( String value )
+  {
+    if( value == null || value.isEmpty() )
+    {
+      return Collections.emptyList();
+    }
+
+    List<String> paths = new ArrayList<>();
+    for( String j: value.trim().split( " +" ) )
+    {
+      try
+      {
+        paths.add( new File( new URL( j ).toURI() ).getAbsolutePath() );
+      }
+      catch( MalformedURLException | URISyntaxException | IllegalArgumentException e )
+      {
+        // Class-Path contained an invalid or non-file URL, skip it
+      }
+    }
+    return paths;
+  }
+
+  private void load()
+  {
+    if( !Files.isRegularFile( _file ) )
+    {
+      return;
+    }
+
+    try
+    {
+      List<String> lines = Files.readAllLines( _file, StandardCharsets.UTF_8 );
+      if( lines.isEmpty() || !lines.get( 0 ).equals( FORMAT_VERSION ) )
+      {
+        return;
+      }
+      boolean pruned = false;
+      for( String line: lines.subList( 1, lines.size() ) )
+      {
+        // jar path, size, modification time, class path entries
+        String[] fields = line.split( "\t" );
+        if( fields.length >= 3 )
+        {
+          if( new File( fields[0] ).isFile() )
+          {
+            _entries.put( fields[0], new Entry( Long.parseLong( fields[1] ), Long.parseLong( fields[2] ),
+              new ArrayList<>( Arrays.asList( fields ).subList( 3, fields.length ) ) ) );
+          }
+          else
+          {
+            // the jar is gone, rewrite the file without it
+            pruned = true;
+          }
+        }
+      }
+      if( pruned )
+      {
+        scheduleSave();
+      }
+    }
+    catch( IOException | NumberFormatException e )
+    {
+      LOG.warn( "Failed to read manifest Class-Path cache: " + _file, e );
+      _entries.clear();
+    }
+  }
+
+  private void scheduleSave()
+  {
+    if( _saveScheduled.compareAndSet( false, true ) )
+    {
+      AppExecutorUtil.getAppExecutorService().execute( this::save );
+    }
+  }
+
+  private synchronized void save()
+  {
+    _saveScheduled.set( false );
+
+    StringBuilder content = new StringBuilder( FORMAT_VERSION ).append( '\n' );
+    _entries.forEach( ( path, entry ) -> {
+      content.append( path ).append( '\t' ).append( entry._size ).append( '\t' ).append( entry._modified );
+      for( String classPathEntry: entry._paths )
+      {
+        content.append( '\t' ).append( classPathEntry );
+      }
+      content.append( '\n' );
+    } );
+
+    Path temp = null;
+    try
+    {
+      Files.createDirectories( _file.getParent() );
+      temp = Files.createTempFile( _file.getParent(), _file.getFileName().toString(), ".tmp" );
+      Files.write( temp, content.toString().getBytes( StandardCharsets.UTF_8 ) );
+      Files.move( temp, _file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+      temp = null;
+    }
+    catch( IOException e )
+    {
+      LOG.warn( "Failed to write manifest Class-Path cache: " + _file, e );
+    }
+    finally
+    {
+      if( temp != null )
+      {
+        try
+        {
+          Files.deleteIfExists( temp );
+        }
+        catch( IOException ignore )
+        {
+        }
+      }
+    }
+  }
+
+  private static class Entry
+  {
+    private final long _size;
+    private final long _modified;
+    private final List<String> _paths;
+
+    private Entry( long size, long modified, List<String> paths )
+    {
+      _size = size;
+      _modified = modified;
+      _paths = paths;
+    }
+  }
+}
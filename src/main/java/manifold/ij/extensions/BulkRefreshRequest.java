@@ -0,0 +1,69 @@
+/*
+ *
+ *  * Copyright (c) 2022 - Manifold Systems LLC
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *       http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ *
+ */
+
+/*
+ * Manifold
+ */
+
+package manifold.ij.extensions;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import manifold.api.host.IModule;
+import manifold.api.host.RefreshKind;
+import manifold.api.host.RefreshRequest;
+
+/**
+ * The {@link RefreshRequest}s of a batch of file changes for a single module and refresh kind. Delivered to
+ * {@link IBulkTypeSystemListener}s in place of the individual requests.
+ */
+public class BulkRefreshRequest
+{
+  public final IModule module;
+  public final RefreshKind kind;
+  public final List<RefreshRequest> requests;
+
+  public BulkRefreshRequest( IModule module, RefreshKind kind, List<RefreshRequest> requests )
+  {
+    this.module = module;
+    this.kind = kind;
+    this.requests = requests;
+  }
+
+  /**
+   * @return The union of the types of all the requests
+   */
+  public Set<String> getTypes()
+  {
+    Set<String> types = new LinkedHashSet<>();
+    for( RefreshRequest request: requests )
+    {
+      types.addAll( Arrays.asList( request.types ) );
+    }
+    return types;
+  }
+
+  @Override
+  public String toString()
+  {
+    return kind + " of " + requests.size() + " files in " + module.getName();
+  }
+}
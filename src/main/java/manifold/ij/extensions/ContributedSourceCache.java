@@ -0,0 +1,424 @@
+/*
+ *
+ *  * Copyright (c) 2022 - Manifold Systems LLC
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *       http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ *
+ */
+
+/*
+ * Manifold
+ */
+
+package manifold.ij.extensions;
+
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import manifold.api.fs.IFile;
+import manifold.api.fs.IFileFragment;
+import manifold.api.type.ITypeManifold;
+import manifold.ij.core.ManModule;
+import manifold.ij.core.ManProject;
+import manifold.ij.fs.IjFile;
+import manifold.ij.util.FP64;
+import manifold.ij.util.FileUtil;
+import manifold.util.concurrent.ConcurrentWeakHashMap;
+import manifold.util.concurrent.LocklessLazyVar;
+
+/**
+ * Persists the source contributed by type manifolds in the IDE's system directory so that types need not be
+ * regenerated after the IDE restarts.
+ * <p/>
+ * An entry is keyed by module, top-level FQN, and the type manifolds contributing to it. It is valid only while the
+ * fingerprint of its inputs matches: the content of the files the type manifolds report for the type via
+ * {@link ITypeManifold#findFilesForType(String)}, the location of the type manifold classes, and a dependency key.
+ * A type manifold does not report every input to a type, for instance a GraphQL query depends on the schema files and
+ * a JSON schema on the schemas it references. The dependency key covers the path, length, and timestamp of every file
+ * of the same kind of type manifold in the module and the modules it sees, so a change to any of them misses.
+ * <p/>
+ * Only types whose files all have one of the extensions listed in {@link #MANIFOLD_PERSISTENT_TYPE_CACHE_EXTENSIONS}
+ * are persisted. Types from file fragments or from files with unsaved changes are never persisted. Entries not used
+ * for {@link #MAX_ENTRY_AGE_DAYS} days are deleted.
+ */
+class ContributedSourceCache
+{
+  private static final Logger LOG = Logger.getInstance( ContributedSourceCache.class );
+
+  private static final String MANIFOLD_PERSISTENT_TYPE_CACHE = "manifold.persistent.type.cache";
+  private static final LocklessLazyVar<boolean[]> PERSISTENT_TYPE_CACHE = LocklessLazyVar.make( () ->
+    new boolean[] {PropertiesComponent.getInstance().getBoolean( MANIFOLD_PERSISTENT_TYPE_CACHE )} );
+  /**
+   * Comma separated file extensions of the resource files whose types are persisted
+   */
+  static final String MANIFOLD_PERSISTENT_TYPE_CACHE_EXTENSIONS = "manifold.persistent.type.cache.extensions";
+  static final String DEFAULT_EXTENSIONS = "graphql,graphqls,gql,json,xml,yaml,yml,properties,png,jpg,jpeg,gif,bmp";
+  private static final String FORMAT_VERSION = "3";
+  static final int MAX_ENTRY_AGE_DAYS = 30;
+  private static final AtomicBoolean PRUNED = new AtomicBoolean();
+  // dependency key of a type manifold kind whose files cannot be persisted
+  private static final String NOT_PERSISTED = "";
+
+  private final LocklessLazyVar<Path> _dir;
+  // module -> type manifold class -> dependency key, until the next refresh
+  private final Map<ManModule, Map<String, String>> _dependencyKeys;
+  // bumped before the dependency keys are dropped, a key computed concurrently with a bump is not kept
+  private final AtomicInteger _dependencyStamp;
+
+  ContributedSourceCache( ManProject project )
+  {
+    _dir = LocklessLazyVar.make( () -> {
+      Path root = getRoot();
+      if( PRUNED.compareAndSet( false, true ) )
+      {
+        AppExecutorUtil.getAppExecutorService().execute( () ->
+          prune( root, TimeUnit.DAYS.toMillis( MAX_ENTRY_AGE_DAYS ), System.currentTimeMillis() ) );
+      }
+      return root.resolve( project.getNativeProject().getLocationHash() );
+    } );
+    _dependencyKeys = new ConcurrentWeakHashMap<>();
+    _dependencyStamp = new AtomicInteger();
+  }
+
+  private static Path getRoot()
+  {
+    return Paths.get( PathManager.getSystemPath(), "manifold", "types" );
+  }
+
+  static boolean isEnabled()
+  {
+    return PERSISTENT_TYPE_CACHE.get()[0];
+  }
+  static void setEnabled( boolean enabled )
+  {
+    PERSISTENT_TYPE_CACHE.get()[0] = enabled;
+    PropertiesComponent.getInstance().setValue( MANIFOLD_PERSISTENT_TYPE_CACHE, enabled );
+  }
+
+  /**
+   * @return Comma separated file extensions of the resource files whose types are persisted
+   */
+  static String getExtensions()
+  {
+    return PropertiesComponent.getInstance().getValue( MANIFOLD_PERSISTENT_TYPE_CACHE_EXTENSIONS, DEFAULT_EXTENSIONS );
+  }
+  static void setExtensions( String extensions )
+  {
+    PropertiesComponent.getInstance().setValue( MANIFOLD_PERSISTENT_TYPE_CACHE_EXTENSIONS, extensions,
+      DEFAULT_EXTENSIONS );
+  }
+
+  static Set<String> parseExtensions( String extensions )
+  {
+    Set<String> result = new HashSet<>();
+    for( String ext: extensions.split( "," ) )
+    {
+      ext = ext.trim();
+      if( !ext.isEmpty() )
+      {
+        result.add( ext.toLowerCase() );
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Reads the content of the type's files. That is one pass over input the type manifolds parse in full to contribute
+   * the type.
+   *
+   * @return The fingerprint of the inputs to the type, or null if the type cannot be persisted
+   */
+  String fingerprint( ManModule module, Collection<ITypeManifold> tms, String topLevelFqn )
+  {
+    FP64 fp = new FP64( FORMAT_VERSION );
+    Set<String> extensions = parseExtensions( getExtensions() );
+    for( ITypeManifold tm: tms )
+    {
+      fp.extend( tm.getClass().getName() );
+      CodeSource codeSource = tm.getClass().getProtectionDomain().getCodeSource();
+      URL location = codeSource == null ? null : codeSource.getLocation();
+      if( location != null )
+      {
+        fp.extend( location.toString() );
+      }
+
+      List<IFile> files = tm.findFilesForType( topLevelFqn );
+      if( files.isEmpty() )
+      {
+        return null;
+      }
+      for( IFile file: files )
+      {
+        String ext = file.getExtension();
+        if( ext == null || !extensions.contains( ext.toLowerCase() ) || getSavedFile( file ) == null )
+        {
+          return null;
+        }
+        fp.extend( file.getPath().getPathString() );
+        try
+        {
+          FileUtil.extendFingerprint( fp, file );
+        }
+        catch( IOException e )
+        {
+          LOG.warn( "Failed to fingerprint: " + file.getPath().getPathString(), e );
+          return null;
+        }
+      }
+
+      String dependencyKey = getDependencyKey( module, tm );
+      if( dependencyKey == null )
+      {
+        return null;
+      }
+      fp.extend( dependencyKey );
+    }
+    return fp.toHexString();
+  }
+
+  /**
+   * @return The file's virtual file if it is a whole file without unsaved changes, otherwise null
+   */
+  private static VirtualFile getSavedFile( IFile file )
+  {
+    if( file instanceof IFileFragment || !(file.getPhysicalFile() instanceof IjFile) )
+    {
+      return null;
+    }
+    VirtualFile vfile = ((IjFile)file.getPhysicalFile()).getVirtualFile();
+    if( vfile == null || FileDocumentManager.getInstance().isFileModified( vfile ) )
+    {
+      // entries are keyed by saved content, persisting every edit would rewrite the entry per keystroke
+      return null;
+    }
+    return vfile;
+  }
+
+  /**
+   * @return The dependency key of {@code tm}'s kind of type manifold in {@code module}, or null if a file it covers has
+   * unsaved changes
+   */
+  private String getDependencyKey( ManModule module, ITypeManifold tm )
+  {
+    Map<String, String> keys = _dependencyKeys.computeIfAbsent( module, key -> new ConcurrentHashMap<>() );
+    String tmClass = tm.getClass().getName();
+    String key = keys.get( tmClass );
+    if( key == null )
+    {
+      int stamp = _dependencyStamp.get();
+      key = makeDependencyKey( module, tm.getClass() );
+      keys.put( tmClass, key );
+      if( _dependencyStamp.get() != stamp )
+      {
+        // a refresh arrived meanwhile, the key may not reflect it
+        keys.remove( tmClass, key );
+      }
+    }
+    return key.equals( NOT_PERSISTED ) ? null : key;
+  }
+
+  private static String makeDependencyKey( ManModule module, Class<?> tmClass )
+  {
+    // sorted by path, the key must not depend on the order type names are listed in
+    Map<String, VirtualFile> files = new TreeMap<>();
+    for( ManModule visible: module.getVisibleModules() )
+    {
+      for( ITypeManifold tm: visible.getTypeManifolds() )
+      {
+        if( tm.getClass() != tmClass )
+        {
+          continue;
+        }
+        for( String fqn: tm.getAllTypeNames() )
+        {
+          for( IFile file: tm.findFilesForType( fqn ) )
+          {
+            if( file instanceof IFileFragment || !(file.getPhysicalFile() instanceof IjFile) )
+            {
+              continue;
+            }
+            VirtualFile vfile = getSavedFile( file );
+            if( vfile == null )
+            {
+              return NOT_PERSISTED;
+            }
+            files.put( file.getPath().getPathString(), vfile );
+          }
+        }
+      }
+    }
+
+    FP64 fp = new FP64( tmClass.getName() );
+    for( Map.Entry<String, VirtualFile> entry: files.entrySet() )
+    {
+      fp.extend( entry.getKey() );
+      fp.extend( entry.getValue().getLength() );
+      fp.extend( entry.getValue().getTimeStamp() );
+    }
+    return fp.toHexString();
+  }
+
+  /**
+   * Drop the dependency keys, call this when files change.
+   */
+  void invalidateDependencyKeys()
+  {
+    _dependencyStamp.incrementAndGet();
+    _dependencyKeys.clear();
+  }
+
+  /**
+   * @return The persisted source for the type if its inputs still match {@code fingerprint}, otherwise null
+   */
+  String load( ManModule module, Collection<ITypeManifold> tms, String topLevelFqn, String fingerprint )
+  {
+    try
+    {
+      return readEntry( getEntry( module, tms, topLevelFqn ), fingerprint );
+    }
+    catch( IOException e )
+    {
+      LOG.warn( "Failed to read cached source for: " + topLevelFqn, e );
+      return null;
+    }
+  }
+
+  void store( ManModule module, Collection<ITypeManifold> tms, String topLevelFqn, String fingerprint, String source )
+  {
+    Path entry = getEntry( module, tms, topLevelFqn );
+    AppExecutorUtil.getAppExecutorService().execute( () -> {
+      try
+      {
+        writeEntry( entry, fingerprint, source );
+      }
+      catch( IOException e )
+      {
+        LOG.warn( "Failed to cache source for: " + topLevelFqn, e );
+      }
+    } );
+  }
+
+  /**
+   * @return The source in {@code entry} if it was written with {@code fingerprint}, otherwise null
+   */
+  static String readEntry( Path entry, String fingerprint ) throws IOException
+  {
+    if( !Files.isRegularFile( entry ) )
+    {
+      return null;
+    }
+
+    String content = new String( Files.readAllBytes( entry ), StandardCharsets.UTF_8 );
+    String header = fingerprint + '\n';
+    if( !content.startsWith( header ) )
+    {
+      return null;
+    }
+    // keep a used entry from being pruned
+    Files.setLastModifiedTime( entry, FileTime.fromMillis( System.currentTimeMillis() ) );
+    return content.substring( header.length() );
+  }
+
+  static void writeEntry( Path entry, String fingerprint, String source ) throws IOException
+  {
+    Files.createDirectories( entry.getParent() );
+    Path temp = Files.createTempFile( entry.getParent(), entry.getFileName().toString(), ".tmp" );
+    try
+    {
+      Files.write( temp, (fingerprint + '\n' + source).getBytes( StandardCharsets.UTF_8 ) );
+      Files.move( temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+    finally
+    {
+      Files.deleteIfExists( temp );
+    }
+  }
+
+  /**
+   * Delete entries under {@code root} last used more than {@code maxAgeMillis} ago, and project directories left
+   * empty. Covers the entries of projects no longer opened.
+   */
+  static void prune( Path root, long maxAgeMillis, long now )
+  {
+    if( !Files.isDirectory( root ) )
+    {
+      return;
+    }
+
+    try( DirectoryStream<Path> projectDirs = Files.newDirectoryStream( root ) )
+    {
+      for( Path projectDir: projectDirs )
+      {
+        if( !Files.isDirectory( projectDir ) )
+        {
+          continue;
+        }
+        try( DirectoryStream<Path> entries = Files.newDirectoryStream( projectDir ) )
+        {
+          for( Path entry: entries )
+          {
+            if( now - Files.getLastModifiedTime( entry ).toMillis() > maxAgeMillis )
+            {
+              Files.deleteIfExists( entry );
+            }
+          }
+        }
+        try( DirectoryStream<Path> entries = Files.newDirectoryStream( projectDir ) )
+        {
+          if( !entries.iterator().hasNext() )
+          {
+            Files.deleteIfExists( projectDir );
+          }
+        }
+      }
+    }
+    catch( IOException e )
+    {
+      LOG.warn( "Failed to prune cached sources in: " + root, e );
+    }
+  }
+
+  private Path getEntry( ManModule module, Collection<ITypeManifold> tms, String topLevelFqn )
+  {
+    FP64 key = new FP64( module.getName() ).extend( topLevelFqn );
+    for( ITypeManifold tm: tms )
+    {
+      key.extend( tm.getClass().getName() );
+    }
+    return _dir.get().resolve( key.toHexString() );
+  }
+}
@@ -25,7 +25,10 @@ package manifold.ij.extensions;
 
 import com.intellij.injected.editor.VirtualFileWindow;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -39,39 +42,117 @@ import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.impl.PsiDocumentTransactionListener;
 import com.intellij.testFramework.LightVirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import manifold.api.fs.IFile;
 import manifold.api.fs.IResource;
+import manifold.api.host.RefreshKind;
 import manifold.ij.core.ManProject;
 import manifold.ij.fs.IjFile;
 import manifold.ij.util.DelayedRunner;
 import manifold.ij.util.FileUtil;
 
+/**
+ * Translates document and VFS changes into type system refresh events. Events are coalesced per file: a burst of
+ * changes to a file is delivered as a single net event after the file has been quiet for a short window, the window
+ * widening as the burst continues. For instance, a file modified then deleted in quick succession is only deleted, and
+ * a file created then deleted is never reported. A rename or move deletes the old path before the file is renamed,
+ * while it still resolves to its old name, parent, and module. The deletion is delivered right away, together with
+ * the changes pending for the file and the files under it, and the creation of the new path is queued like the rest.
+ * Pending changes are taken and delivered in one read action, so a rename never finds changes taken but not yet
+ * delivered. Deliveries are serialized. VFS events are resolved off the EDT in a non-blocking read action. In unit-test
+ * mode events are resolved on the EDT and delivered immediately.
+ */
 public class FileModificationManager implements PsiDocumentTransactionListener, BulkFileListener
 {
-  @SuppressWarnings("FieldCanBeLocal")
-  private static int TYPE_REFRESH_DELAY_MS = 0;
+  private static final Logger LOG = Logger.getInstance( FileModificationManager.class );
+  static final int MIN_REFRESH_WINDOW_MS = 50;
+  static final int MAX_REFRESH_WINDOW_MS = 500;
 
   private final DelayedRunner _typeRefresher = new DelayedRunner();
+  private final Map<String, PendingRefresh> _pendingRefreshes = new ConcurrentHashMap<>();
+  // taken inside the read action of a delivery, so a write action never waits for it
+  private final Object _deliveryLock = new Object();
+  // guarded by itself
+  private final List<VFileEvent> _pendingVfsEvents = new ArrayList<>();
   private final Project _project;
   private final ManProject _manProject;
+  private final FileRelevanceFilter _fileFilter;
   private ManRefreshListener _manRefresher;
 
-  private class Refresher implements Runnable
+  /**
+   * The net refresh event for a file whose changes have not been delivered yet
+   */
+  static class PendingRefresh
   {
-    private final Project _project;
-    private final VirtualFile _file;
+    private final IResource _file;
+    private final RefreshKind _kind;
+    private final int _burst;
+    private final long _due;
 
-    Refresher( Project project, VirtualFile file )
+    PendingRefresh( IResource file, RefreshKind kind, int burst )
     {
-      _project = project;
       _file = file;
+      _kind = kind;
+      _burst = burst;
+      _due = System.nanoTime() + getWindow() * 1_000_000;
+    }
+
+    /**
+     * @return The net event of this event followed by {@code kind}, or null if they cancel out
+     */
+    PendingRefresh merge( IResource file, RefreshKind kind )
+    {
+      RefreshKind net;
+      if( _kind == RefreshKind.CREATION )
+      {
+        // the file was never reported, a deletion cancels it and anything else keeps it a creation
+        if( kind == RefreshKind.DELETION )
+        {
+          return null;
+        }
+        net = RefreshKind.CREATION;
+      }
+      else
+      {
+        // the file was reported, a deletion wins and anything else, including recreation, amounts to a modification
+        net = kind == RefreshKind.DELETION ? RefreshKind.DELETION : RefreshKind.MODIFICATION;
+      }
+      return new PendingRefresh( file, net, _burst + 1 );
+    }
+
+    RefreshKind getKind()
+    {
+      return _kind;
+    }
+
+    long getWindow()
+    {
+      return Math.min( MAX_REFRESH_WINDOW_MS, (long)MIN_REFRESH_WINDOW_MS << Math.min( _burst, 4 ) );
     }
+  }
+
+  /**
+   * A refresh event resolved from a VFS event
+   */
+  private static class VfsChange
+  {
+    private final IResource _file;
+    private final RefreshKind _kind;
 
-    public void run()
+    VfsChange( IResource file, RefreshKind kind )
     {
-      ApplicationManager.getApplication().runReadAction( () -> fireModifiedEvent( _file ) );
+      _file = file;
+      _kind = kind;
     }
   }
 
@@ -80,6 +161,7 @@ public class FileModificationManager implements PsiDocumentTransactionListener,
     _project = project.getNativeProject();
     _manProject = ManProject.manProjectFrom( _project );
     _manRefresher = new ManRefreshListener( _project );
+    _fileFilter = new FileRelevanceFilter( _project );
   }
 
   public ManRefreshListener getManRefresher()
@@ -87,11 +169,6 @@ public class FileModificationManager implements PsiDocumentTransactionListener,
     return _manRefresher;
   }
 
-  private String getRefreshTaskId( VirtualFile virtualFile )
-  {
-    return virtualFile.getPath();
-  }
-
   // PsiDocumentTransactionListener
   public void transactionStarted( final Document doc, final PsiFile file )
   {
@@ -108,14 +185,9 @@ public class FileModificationManager implements PsiDocumentTransactionListener,
       file = ((VirtualFileWindow)file).getDelegate();
     }
 
-    final Runnable refresher = new Refresher( _project, file );
-    if( TYPE_REFRESH_DELAY_MS == 0 )
-    {
-      refresher.run();
-    }
-    else
+    if( !ignoreFile( file ) )
     {
-      _typeRefresher.scheduleTask( getRefreshTaskId( file ), TYPE_REFRESH_DELAY_MS, refresher );
+      enqueue( FileUtil.toIResource( _project, file ), RefreshKind.MODIFICATION );
     }
 
 //    // process inner class changes
@@ -130,6 +202,99 @@ public class FileModificationManager implements PsiDocumentTransactionListener,
     return ManProject.manProjectFrom( psiFile.getProject() ).getFileSystem().getIFile( file );
   }
 
+  private void enqueue( IResource file, RefreshKind kind )
+  {
+    if( ApplicationManager.getApplication().isUnitTestMode() )
+    {
+      ApplicationManager.getApplication().runReadAction( () -> fire( file, kind ) );
+      return;
+    }
+
+    String key = file.getPath().getPathString();
+    PendingRefresh pending = _pendingRefreshes.compute( key,
+      ( k, prior ) -> prior == null ? new PendingRefresh( file, kind, 0 ) : prior.merge( file, kind ) );
+    if( pending != null )
+    {
+      // replaces the task already scheduled for the file, if any
+      _typeRefresher.scheduleTask( key, pending.getWindow(), () -> flush( key ) );
+    }
+  }
+
+  private void flush( String key )
+  {
+    Map<IResource, RefreshKind> changes = new LinkedHashMap<>();
+    deliver( () -> {
+      take( key, _pendingRefreshes.get( key ), changes );
+
+      // deliver the other files whose window has also elapsed in the same batch, a burst of changes across many files
+      // e.g., from a VCS update, is then refreshed in bulk
+      long now = System.nanoTime();
+      _pendingRefreshes.forEach( ( k, pending ) -> {
+        if( pending._due <= now )
+        {
+          take( k, pending, changes );
+        }
+      } );
+      return changes;
+    } );
+
+    if( LOG.isDebugEnabled() )
+    {
+      LOG.debug( "Refreshed " + changes.size() + " file(s), " + _typeRefresher.getQueueDepth() + " queued, " +
+                 "latency avg " + _typeRefresher.getAverageLatencyMillis() + "ms, max " +
+                 _typeRefresher.getMaxLatencyMillis() + "ms over " + _typeRefresher.getExecutedCount() + " runs" );
+    }
+  }
+
+  private void take( String key, PendingRefresh pending, Map<IResource, RefreshKind> changes )
+  {
+    if( pending != null && _pendingRefreshes.remove( key, pending ) )
+    {
+      changes.put( pending._file, pending._kind );
+    }
+  }
+
+  /**
+   * Deliver the changes {@code taker} takes from the pending refreshes. They are taken within the read action of the
+   * delivery, a write action renaming a file then either finds a change pending or finds it delivered.
+   */
+  private void deliver( Supplier<Map<IResource, RefreshKind>> taker )
+  {
+    if( _project.isDisposed() )
+    {
+      return;
+    }
+
+    ApplicationManager.getApplication().runReadAction( () -> {
+      synchronized( _deliveryLock )
+      {
+        Map<IResource, RefreshKind> changes = taker.get();
+        if( !changes.isEmpty() )
+        {
+          _manRefresher.notifyBulk( changes );
+        }
+      }
+    } );
+  }
+
+  private void fire( IResource file, RefreshKind kind )
+  {
+    synchronized( _deliveryLock )
+    {
+      switch( kind )
+      {
+        case CREATION:
+          fireCreatedEvent( file );
+          break;
+        case DELETION:
+          fireDeletedEvent( file );
+          break;
+        default:
+          fireModifiedEvent( file );
+      }
+    }
+  }
+
   // BulkRefreshListener
   public void before( final List<? extends VFileEvent> events )
   {
@@ -159,6 +324,8 @@ public class FileModificationManager implements PsiDocumentTransactionListener,
       {
         if( isMoveOrRename( event ) )
         {
+          // resolve the events preceding the rename while their files still have their old names
+          drainPendingVfsEvents();
           processRenameBefore( event );
         }
       }
@@ -172,24 +339,87 @@ public class FileModificationManager implements PsiDocumentTransactionListener,
       return;
     }
 
-    DumbService dumb = DumbService.getInstance( _project );
-    if( dumb.isDumb() )
+    _manProject.getFileSystem().vfsChanged( events );
+
+    if( ApplicationManager.getApplication().isUnitTestMode() )
     {
-      dumb.smartInvokeLater( () -> _after( events ) );
+      DumbService dumb = DumbService.getInstance( _project );
+      if( dumb.isDumb() )
+      {
+        dumb.smartInvokeLater( () -> _after( events ) );
+      }
+      else
+      {
+        ApplicationManager.getApplication().invokeLater( () -> _after( events ) );
+      }
+      return;
     }
-    else
+
+    synchronized( _pendingVfsEvents )
     {
-      ApplicationManager.getApplication().invokeLater( () ->_after( events ) );
+      _pendingVfsEvents.addAll( events );
     }
+    processPendingVfsEvents();
   }
 
   private void _after( final List<? extends VFileEvent> events )
   {
-    if( _project.isDisposed() )
+    applyVfsChanges( resolveVfsEvents( events ) );
+  }
+
+  /**
+   * Resolve the pending VFS events off the EDT in a non-blocking read action in smart mode. A write action restarts the
+   * resolution and a newer submission supersedes an older one. The events are claimed and their changes queued within
+   * the same read action after the last cancellation check, so each event is applied exactly once and never
+   * concurrently with a rename's write action draining the queue.
+   */
+  private void processPendingVfsEvents()
+  {
+    ReadAction.nonBlocking( () -> {
+        List<VFileEvent> events;
+        synchronized( _pendingVfsEvents )
+        {
+          events = new ArrayList<>( _pendingVfsEvents );
+        }
+        List<VfsChange> changes = resolveVfsEvents( events );
+        ProgressManager.checkCanceled();
+        removePendingVfsEvents( events );
+        applyVfsChanges( changes );
+      } )
+      .inSmartMode( _project )
+      .expireWith( _project )
+      .coalesceBy( this )
+      .submit( AppExecutorUtil.getAppExecutorService() );
+  }
+
+  /**
+   * Resolve and apply the pending VFS events now, called from the write action of a rename so the events preceding it
+   * are processed first
+   */
+  private void drainPendingVfsEvents()
+  {
+    List<VFileEvent> events;
+    synchronized( _pendingVfsEvents )
     {
-      return;
+      events = new ArrayList<>( _pendingVfsEvents );
+      _pendingVfsEvents.clear();
+    }
+    applyVfsChanges( resolveVfsEvents( events ) );
+  }
+
+  private void removePendingVfsEvents( List<VFileEvent> events )
+  {
+    Set<VFileEvent> processed = Collections.newSetFromMap( new IdentityHashMap<>() );
+    processed.addAll( events );
+    synchronized( _pendingVfsEvents )
+    {
+      _pendingVfsEvents.removeIf( processed::contains );
     }
+  }
 
+  private List<VfsChange> resolveVfsEvents( List<? extends VFileEvent> events )
+  {
+    List<VfsChange> changes = new ArrayList<>();
     for( VFileEvent event : events )
     {
       final VirtualFile file = event.getFile();
@@ -197,34 +427,57 @@ public class FileModificationManager implements PsiDocumentTransactionListener,
       {
         if( event instanceof VFileCreateEvent )
         {
-          fireCreatedEvent( file );
+          changes.add( new VfsChange( FileUtil.toIResource( _project, file ), RefreshKind.CREATION ) );
         }
         else if( event instanceof VFileDeleteEvent )
         {
-          fireDeletedEvent( file );
+          changes.add( new VfsChange( FileUtil.toIResource( _project, file ), RefreshKind.DELETION ) );
         }
         else if( event instanceof VFileCopyEvent )
         {
-          processFileCopyEvent( (VFileCopyEvent)event );
+          changes.add( new VfsChange( getCopiedFile( (VFileCopyEvent)event ), RefreshKind.CREATION ) );
         }
         else if( isMoveOrRename( event ) )
         {
-          processRenameAfter( event );
+          if( !(file instanceof LightVirtualFile) )
+          {
+            // Handle the Creation *after* it is renamed
+            changes.add( new VfsChange( FileUtil.toIResource( _project, file ), RefreshKind.CREATION ) );
+          }
         }
         else // modified
         {
-          ApplicationManager.getApplication().runReadAction( () -> fireModifiedEvent( file ) );
+          changes.add( new VfsChange( FileUtil.toIResource( _project, file ), RefreshKind.MODIFICATION ) );
         }
       }
     }
+    return changes;
+  }
+
+  private void applyVfsChanges( List<VfsChange> changes )
+  {
+    if( _project.isDisposed() )
+    {
+      return;
+    }
+
+    for( VfsChange change: changes )
+    {
+      enqueue( change._file, change._kind );
+    }
   }
 
   private boolean ignoreFile( VirtualFile file )
   {
-    return file == null ||
-           file.getPath().contains( "/.idea/" ) ||
-           file.getPath().contains( "/.git/" ) ||
-           file.getPath().contains( "/idea-sandbox/" );
+    return !_fileFilter.isRelevant( file );
+  }
+
+  /**
+   * Call when the project's module roots change
+   */
+  public void invalidateFileFilter()
+  {
+    _fileFilter.invalidate();
   }
 
   private boolean isMoveOrRename( VFileEvent event )
@@ -242,44 +495,40 @@ public class FileModificationManager implements PsiDocumentTransactionListener,
     }
 
     // Handle the Deletion *before* it is renamed
-    fireDeletedEvent( originalFile );
-  }
-
-  private void processRenameAfter( VFileEvent event )
-  {
-    VirtualFile renamedFile = event.getFile();
-    if( renamedFile instanceof LightVirtualFile )
+    IResource file = FileUtil.toIResource( _project, originalFile );
+    if( ApplicationManager.getApplication().isUnitTestMode() )
     {
+      enqueue( file, RefreshKind.DELETION );
       return;
     }
 
-    // Handle the Creation *after* it is renamed
-    fireCreatedEvent( renamedFile );
+    // delivered now, the changes pending for the file and the files under it still resolve to their old paths
+    String key = file.getPath().getPathString();
+    String prefix = key + '/';
+    deliver( () -> {
+      Map<IResource, RefreshKind> changes = new LinkedHashMap<>();
+      _pendingRefreshes.forEach( ( k, pending ) -> {
+        if( k.startsWith( prefix ) )
+        {
+          take( k, pending, changes );
+        }
+      } );
+      PendingRefresh pending = _pendingRefreshes.remove( key );
+      PendingRefresh net = pending == null
+                           ? new PendingRefresh( file, RefreshKind.DELETION, 0 )
+                           : pending.merge( file, RefreshKind.DELETION );
+      if( net != null )
+      {
+        changes.put( file, net.getKind() );
+      }
+      return changes;
+    } );
   }
 
-  private void processFileCopyEvent( VFileCopyEvent event )
+  private IFile getCopiedFile( VFileCopyEvent event )
   {
     String newFileName = event.getNewParent().getPath() + "/" + event.getNewChildName();
-    IFile newFile = _manProject.getFileSystem().getIFile( new File( newFileName ) );
-    fireCreatedEvent( newFile );
-  }
-
-  private void fireModifiedEvent( VirtualFile file )
-  {
-    if( !ignoreFile( file ) )
-    {
-      fireModifiedEvent( FileUtil.toIResource( _project, file ) );
-    }
-  }
-
-  private void fireDeletedEvent( VirtualFile file )
-  {
-    fireDeletedEvent( FileUtil.toIResource( _project, file ) );
-  }
-
-  private void fireCreatedEvent( VirtualFile file )
-  {
-    fireCreatedEvent( FileUtil.toIResource( _project, file ) );
+    return _manProject.getFileSystem().getIFile( new File( newFileName ) );
   }
 
   private void fireModifiedEvent( IResource file )
@@ -0,0 +1,311 @@
+/*
+ *
+ *  * Copyright (c) 2022 - Manifold Systems LLC
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *       http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ *
+ */
+
+/*
+ * Manifold
+ */
+
+package manifold.ij.extensions;
+
+import com.intellij.openapi.compiler.CompilerPaths;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.OrderEnumerator;
+import com.intellij.openapi.vfs.VirtualFile;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import manifold.ij.core.ManProject;
+
+/**
+ * Decides whether a changed file can affect manifold types. Files under a module source root or a library root are
+ * relevant unless they are also under an excluded root or an output directory, the nearest enclosing root decides.
+ * Library roots are kept because type manifolds can produce types from library resources. Ancestors of roots are
+ * relevant too, since moving or deleting a directory affects the roots it contains. Anything else, or anything in a
+ * VCS, IDE, or build tool directory not leading to a root, is dropped.
+ * <p/>
+ * The roots are kept in a trie of path segments built lazily, {@link #invalidate()} drops it when the project's modules
+ * change. Paths are matched in place without allocating a string per segment. Drops are counted per category and
+ * logged at debug level when the trie is dropped.
+ */
+class FileRelevanceFilter
+{
+  private static final Logger LOG = Logger.getInstance( FileRelevanceFilter.class );
+  private static final String JAR_INDICATOR = "!/";
+  private static final String[] IGNORED_DIRS = {".idea", ".git", "idea-sandbox", "node_modules", ".gradle"};
+
+  enum Drop
+  {
+    IgnoredDirectory, Excluded, Output, OutsideRoots
+  }
+
+  enum Kind
+  {
+    Source, Excluded, Output
+  }
+
+  private final Project _project;
+  private volatile Node _root;
+  private final Map<Drop, AtomicLong> _dropCounts;
+
+  FileRelevanceFilter( Project project )
+  {
+    _project = project;
+    _dropCounts = new EnumMap<>( Drop.class );
+    for( Drop drop: Drop.values() )
+    {
+      _dropCounts.put( drop, new AtomicLong() );
+    }
+  }
+
+  boolean isRelevant( VirtualFile file )
+  {
+    if( file == null )
+    {
+      return false;
+    }
+
+    Drop drop = findDrop( getRoot(), file.getPath() );
+    if( drop != null )
+    {
+      _dropCounts.get( drop ).incrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return Why {@code path} is dropped, or null if it is relevant
+   */
+  static Drop findDrop( Node root, String path )
+  {
+    Node node = root;
+    Kind nearest = null;
+    int start = 0;
+    while( start <= path.length() )
+    {
+      int end = path.indexOf( '/', start );
+      if( end < 0 )
+      {
+        end = path.length();
+      }
+      // a jar's entries are under the jar's path, "foo.jar!/entry" matches as "foo.jar/entry"
+      int segmentEnd = end < path.length() && end > start && path.charAt( end - 1 ) == '!' ? end - 1 : end;
+      if( segmentEnd > start )
+      {
+        Node child = node == null ? null : node.find( path, start, segmentEnd );
+        if( child == null && isIgnoredDir( path, start, segmentEnd ) )
+        {
+          return Drop.IgnoredDirectory;
+        }
+        node = child;
+        if( node != null && node._kind != null )
+        {
+          nearest = node._kind;
+        }
+      }
+      start = end + 1;
+    }
+
+    if( nearest == null )
+    {
+      // an ancestor of a root is relevant, otherwise the file is outside all roots
+      return node != null ? null : Drop.OutsideRoots;
+    }
+    switch( nearest )
+    {
+      case Excluded:
+        return Drop.Excluded;
+      case Output:
+        return Drop.Output;
+      default:
+        return null;
+    }
+  }
+
+  private static boolean isIgnoredDir( String path, int start, int end )
+  {
+    for( String dir: IGNORED_DIRS )
+    {
+      if( dir.length() == end - start && path.startsWith( dir, start ) )
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  long getDropCount( Drop drop )
+  {
+    return _dropCounts.get( drop ).get();
+  }
+
+  void invalidate()
+  {
+    _root = null;
+
+    if( LOG.isDebugEnabled() )
+    {
+      LOG.debug( "File events dropped: " + _dropCounts );
+    }
+  }
+
+  private Node getRoot()
+  {
+    Node root = _root;
+    if( root == null )
+    {
+      _root = root = build();
+    }
+    return root;
+  }
+
+  private Node build()
+  {
+    Node root = new Node();
+    for( Module module: ModuleManager.getInstance( _project ).getModules() )
+    {
+      for( VirtualFile sourceRoot: ManProject.getSourceRoots( module ) )
+      {
+        add( root, sourceRoot, Kind.Source );
+      }
+      OrderEnumerator libraries = OrderEnumerator.orderEntries( module ).withoutSdk().librariesOnly();
+      for( VirtualFile libraryRoot: libraries.classes().getRoots() )
+      {
+        add( root, libraryRoot, Kind.Source );
+      }
+      for( VirtualFile libraryRoot: libraries.sources().getRoots() )
+      {
+        add( root, libraryRoot, Kind.Source );
+      }
+      for( VirtualFile excludedRoot: ModuleRootManager.getInstance( module ).getExcludeRoots() )
+      {
+        add( root, excludedRoot, Kind.Excluded );
+      }
+      add( root, CompilerPaths.getModuleOutputDirectory( module, false ), Kind.Output );
+      add( root, CompilerPaths.getModuleOutputDirectory( module, true ), Kind.Output );
+    }
+    root.freeze();
+    return root;
+  }
+
+  private static void add( Node root, VirtualFile dir, Kind kind )
+  {
+    if( dir != null )
+    {
+      add( root, dir.getPath(), kind );
+    }
+  }
+
+  static void add( Node root, String path, Kind kind )
+  {
+    if( path.endsWith( JAR_INDICATOR ) )
+    {
+      path = path.substring( 0, path.length() - JAR_INDICATOR.length() );
+    }
+    Node node = root;
+    for( String segment: path.replace( JAR_INDICATOR, "/" ).split( "/" ) )
+    {
+      if( !segment.isEmpty() )
+      {
+        node = node._building.computeIfAbsent( segment, s -> new Node() );
+      }
+    }
+    if( node._kind == null || kind != Kind.Source )
+    {
+      // excluded and output roots win over a source root at the same path
+      node._kind = kind;
+    }
+  }
+
+  /**
+   * A trie node, built from a map and then frozen into sorted arrays searched in place
+   */
+  static class Node
+  {
+    private Map<String, Node> _building = new HashMap<>();
+    private String[] _segments;
+    private Node[] _children;
+    private Kind _kind;
+
+    void freeze()
+    {
+      _segments = _building.keySet().toArray( new String[0] );
+      Arrays.sort( _segments );
+      _children = new Node[_segments.length];
+      for( int i = 0; i < _segments.length; i++ )
+      {
+        _children[i] = _building.get( _segments[i] );
+        _children[i].freeze();
+      }
+      _building = null;
+    }
+
+    /**
+     * @return The child for the segment of {@code path} from {@code start} to {@code end}, or null
+     */
+    Node find( String path, int start, int end )
+    {
+      int low = 0;
+      int high = _segments.length - 1;
+      while( low <= high )
+      {
+        int mid = (low + high) >>> 1;
+        int cmp = compare( _segments[mid], path, start, end );
+        if( cmp < 0 )
+        {
+          low = mid + 1;
+        }
+        else if( cmp > 0 )
+        {
+          high = mid - 1;
+        }
+        else
+        {
+          return _children[mid];
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Compares like {@link String#compareTo(String)} without extracting the segment
+     */
+    private static int compare( String segment, String path, int start, int end )
+    {
+      int length = end - start;
+      int min = Math.min( segment.length(), length );
+      for( int i = 0; i < min; i++ )
+      {
+        char c1 = segment.charAt( i );
+        char c2 = path.charAt( start + i );
+        if( c1 != c2 )
+        {
+          return c1 - c2;
+        }
+      }
+      return segment.length() - length;
+    }
+  }
+}
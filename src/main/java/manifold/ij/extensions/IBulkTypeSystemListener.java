@@ -0,0 +1,37 @@
+/*
+ *
+ *  * Copyright (c) 2022 - Manifold Systems LLC
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *       http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ *
+ */
+
+/*
+ * Manifold
+ */
+
+package manifold.ij.extensions;
+
+import manifold.api.host.ITypeSystemListener;
+import manifold.api.host.RefreshRequest;
+
+/**
+ * A type system listener that handles a batch of file changes at once. {@link ManRefreshListener} delivers one
+ * {@link BulkRefreshRequest} per module and refresh kind to such listeners, while other listeners receive each
+ * {@link RefreshRequest} of the batch individually.
+ */
+public interface IBulkTypeSystemListener extends ITypeSystemListener
+{
+  void refreshedTypes( BulkRefreshRequest request );
+}
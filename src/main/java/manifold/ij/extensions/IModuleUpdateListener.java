@@ -0,0 +1,45 @@
+/*
+ *
+ *  * Copyright (c) 2022 - Manifold Systems LLC
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *       http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ *
+ */
+
+/*
+ * Manifold
+ */
+
+package manifold.ij.extensions;
+
+import java.util.Set;
+import manifold.api.host.ITypeSystemListener;
+import manifold.ij.core.ManModule;
+import manifold.ij.core.ManProject;
+
+/**
+ * An optional interface a type system listener implements to drop only the state of modules rebuilt after their roots
+ * or dependencies change, see {@link ManProject#update()}. Listeners not implementing it are sent
+ * {@link ITypeSystemListener#refreshed()} instead, unless they were registered for a module that is kept.
+ */
+public interface IModuleUpdateListener extends ITypeSystemListener
+{
+  /**
+   * Called after {@code modules} are replaced with new instances or removed. The other modules are unchanged and so
+   * are the types they produce.
+   *
+   * @param modules The modules no longer in use
+   */
+  void modulesReplaced( Set<ManModule> modules );
+}
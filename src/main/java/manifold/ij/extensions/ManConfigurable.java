@@ -20,14 +20,22 @@
 package manifold.ij.extensions;
 
 import com.intellij.openapi.options.Configurable;
+import com.intellij.ui.DocumentAdapter;
 import com.intellij.util.ui.JBUI;
+import java.awt.FlowLayout;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import javax.swing.BorderFactory;
 import javax.swing.JCheckBox;
 import javax.swing.JComponent;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.event.DocumentEvent;
 import org.jetbrains.annotations.Nls;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public class ManConfigurable implements Configurable
@@ -68,12 +76,54 @@ public class ManConfigurable implements Configurable
     {
       ManResolveCache.setExperimentalFeaturesEnabled( experimentalFeaturesEnabled );
     }
+
+    boolean concurrentTypeLookup = _manifoldPanel.getConcurrentTypeLookup().isSelected();
+    if( ManifoldPsiClassCache.isConcurrentTypeLookupEnabled() != concurrentTypeLookup )
+    {
+      ManifoldPsiClassCache.setConcurrentTypeLookupEnabled( concurrentTypeLookup );
+    }
+
+    boolean persistentTypeCache = _manifoldPanel.getPersistentTypeCache().isSelected();
+    if( ContributedSourceCache.isEnabled() != persistentTypeCache )
+    {
+      ContributedSourceCache.setEnabled( persistentTypeCache );
+    }
+
+    String persistentTypeCacheExtensions = _manifoldPanel.getPersistentTypeCacheExtensions().getText().trim();
+    if( !ContributedSourceCache.getExtensions().equals( persistentTypeCacheExtensions ) )
+    {
+      ContributedSourceCache.setExtensions( persistentTypeCacheExtensions );
+    }
+
+    boolean typeWarmup = _manifoldPanel.getTypeWarmup().isSelected();
+    if( TypeCacheWarmer.isEnabled() != typeWarmup )
+    {
+      TypeCacheWarmer.setEnabled( typeWarmup );
+    }
+
+    boolean asyncTypeGeneration = _manifoldPanel.getAsyncTypeGeneration().isSelected();
+    if( ManifoldPsiClassCache.isAsyncTypeGenerationEnabled() != asyncTypeGeneration )
+    {
+      ManifoldPsiClassCache.setAsyncTypeGenerationEnabled( asyncTypeGeneration );
+    }
+
+    long typeCacheMaxMb = ((Number)_manifoldPanel.getTypeCacheMaxMb().getValue()).longValue();
+    if( TypeCacheEvictionPolicy.getMaxSizeMb() != typeCacheMaxMb )
+    {
+      TypeCacheEvictionPolicy.setMaxSizeMb( typeCacheMaxMb );
+    }
   }
 
   private static class ManifoldPanel extends JPanel
   {
     private JCheckBox _mode;
     private JCheckBox _experimentalFeatures;
+    private JCheckBox _concurrentTypeLookup;
+    private JCheckBox _persistentTypeCache;
+    private JTextField _persistentTypeCacheExtensions;
+    private JCheckBox _typeWarmup;
+    private JCheckBox _asyncTypeGeneration;
+    private JSpinner _typeCacheMaxMb;
     private boolean _modified;
 
     ManifoldPanel()
@@ -108,6 +158,62 @@ public class ManConfigurable implements Configurable
       _experimentalFeatures.setSelected( ManResolveCache.isExperimentalFeaturesEnabled() );
       _experimentalFeatures.addChangeListener( e -> _modified = true );
 
+      c.gridy = y++;
+      add( _concurrentTypeLookup = new JCheckBox( "Concurrent type lookup" ), c );
+      _concurrentTypeLookup.setToolTipText( "Create unrelated manifold types in parallel instead of one at a time. " +
+                                            "Applies to projects opened afterward" );
+      _concurrentTypeLookup.setSelected( ManifoldPsiClassCache.isConcurrentTypeLookupEnabled() );
+      _concurrentTypeLookup.addChangeListener( e -> _modified = true );
+
+      c.gridy = y++;
+      add( _persistentTypeCache = new JCheckBox( "Cache generated types between sessions" ), c );
+      _persistentTypeCache.setToolTipText( "Save the Java source generated for manifold types in the IDE system " +
+                                           "directory and reuse it after restart while the type's resources are unchanged. " +
+                                           "Applies to the resource file types listed below" );
+      _persistentTypeCache.setSelected( ContributedSourceCache.isEnabled() );
+      _persistentTypeCache.addChangeListener( e -> _modified = true );
+
+      c.gridy = y++;
+      JPanel persistentTypeCacheExtensions = new JPanel( new FlowLayout( FlowLayout.LEFT, 0, 0 ) );
+      persistentTypeCacheExtensions.add( new JLabel( "Cached resource file extensions: " ) );
+      persistentTypeCacheExtensions.add( _persistentTypeCacheExtensions =
+        new JTextField( ContributedSourceCache.getExtensions(), 40 ) );
+      _persistentTypeCacheExtensions.setToolTipText( "Comma separated, a type is cached between sessions only if all " +
+                                                     "of its resource files have one of these extensions" );
+      _persistentTypeCacheExtensions.getDocument().addDocumentListener( new DocumentAdapter()
+      {
+        @Override
+        protected void textChanged( @NotNull DocumentEvent e )
+        {
+          _modified = true;
+        }
+      } );
+      add( persistentTypeCacheExtensions, c );
+
+      c.gridy = y++;
+      add( _typeWarmup = new JCheckBox( "Prepare types in the background on project open" ), c );
+      _typeWarmup.setToolTipText( "After a project opens, generate manifold types in a cancellable background task " +
+                                  "so they are ready when first used in the editor" );
+      _typeWarmup.setSelected( TypeCacheWarmer.isEnabled() );
+      _typeWarmup.addChangeListener( e -> _modified = true );
+
+      c.gridy = y++;
+      add( _asyncTypeGeneration = new JCheckBox( "Generate large types in the background" ), c );
+      _asyncTypeGeneration.setToolTipText( "Types backed by large resource files are generated off the calling thread, " +
+                                           "an empty placeholder class stands in until the type is ready" );
+      _asyncTypeGeneration.setSelected( ManifoldPsiClassCache.isAsyncTypeGenerationEnabled() );
+      _asyncTypeGeneration.addChangeListener( e -> _modified = true );
+
+      c.gridy = y++;
+      JPanel typeCacheMaxMb = new JPanel( new FlowLayout( FlowLayout.LEFT, 0, 0 ) );
+      typeCacheMaxMb.add( new JLabel( "Type cache memory budget in MB (0 for unbounded): " ) );
+      typeCacheMaxMb.add( _typeCacheMaxMb = new JSpinner(
+        new SpinnerNumberModel( (int)Math.max( 0, Math.min( Integer.MAX_VALUE, TypeCacheEvictionPolicy.getMaxSizeMb() ) ), 0, Integer.MAX_VALUE, 64 ) ) );
+      _typeCacheMaxMb.setToolTipText( "When the estimated memory of the cached manifold types exceeds the budget, " +
+                                      "the least recently used types are released and regenerated on their next use" );
+      _typeCacheMaxMb.addChangeListener( e -> _modified = true );
+      add( typeCacheMaxMb, c );
+
       c.anchor = GridBagConstraints.NORTHWEST;
       c.fill = GridBagConstraints.BOTH;
       c.gridx = 0;
@@ -129,6 +235,36 @@ public class ManConfigurable implements Configurable
       return _experimentalFeatures;
     }
 
+    JCheckBox getConcurrentTypeLookup()
+    {
+      return _concurrentTypeLookup;
+    }
+
+    JCheckBox getPersistentTypeCache()
+    {
+      return _persistentTypeCache;
+    }
+
+    JTextField getPersistentTypeCacheExtensions()
+    {
+      return _persistentTypeCacheExtensions;
+    }
+
+    JCheckBox getTypeWarmup()
+    {
+      return _typeWarmup;
+    }
+
+    JCheckBox getAsyncTypeGeneration()
+    {
+      return _asyncTypeGeneration;
+    }
+
+    JSpinner getTypeCacheMaxMb()
+    {
+      return _typeCacheMaxMb;
+    }
+
     boolean isModified()
     {
       return _modified;
@@ -26,36 +26,48 @@ package manifold.ij.extensions;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleUtilCore;
 import com.intellij.openapi.project.Project;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import manifold.api.fs.IFile;
+import manifold.api.fs.IFileFragment;
 import manifold.api.fs.IResource;
 import manifold.api.host.IModule;
 import manifold.api.host.ITypeSystemListener;
 import manifold.api.host.RefreshKind;
 import manifold.api.host.RefreshRequest;
 import manifold.api.type.ITypeManifold;
-import manifold.ext.IExtensionClassProducer;
 import manifold.ij.core.ManModule;
 import manifold.ij.core.ManProject;
 import manifold.ij.fs.IjFile;
+import manifold.ij.util.FP64;
+import manifold.ij.util.FileUtil;
 
 public class ManRefreshListener
 {
   private final CopyOnWriteArrayList<WeakReference<ITypeSystemListener>> _listeners;
   private final ManProject _manProject;
+  // listener -> the module it belongs to, for listeners registered with a module context
+  private final Map<ITypeSystemListener, ManModule> _listenerModules;
+  // file path -> fingerprint of the file's content as of the last change delivered to listeners
+  private final Map<String, FP64> _contentFingerprints;
 
   public ManRefreshListener( Project project )
   {
     _manProject = ManProject.manProjectFrom( project );
     _listeners = new CopyOnWriteArrayList<>();
+    _listenerModules = Collections.synchronizedMap( new WeakHashMap<>() );
+    _contentFingerprints = new ConcurrentHashMap<>();
   }
 
   /**
@@ -76,6 +88,16 @@ public class ManRefreshListener
     }
   }
 
+  /**
+   * Same as {@link #addTypeSystemListenerAsWeakRef(ITypeSystemListener)} for a listener belonging to {@code module}.
+   * Such a listener is not refreshed when only other modules are replaced, see {@link #modulesReplaced(Set)}.
+   */
+  public void addTypeSystemListenerAsWeakRef( ITypeSystemListener l, ManModule module )
+  {
+    addTypeSystemListenerAsWeakRef( l );
+    _listenerModules.put( l, module );
+  }
+
   @SuppressWarnings("unused")
   public void removeTypeSystemListener( ITypeSystemListener l )
   {
@@ -143,13 +165,69 @@ public class ManRefreshListener
   }
   public void nukeFromOrbit()
   {
+    _contentFingerprints.clear();
+    for( ManModule module: _manProject.getModules().values() )
+    {
+      module.clearTypesForFile();
+      module.clearTypeManifoldLookups();
+    }
     for( ITypeSystemListener listener : getListeners() )
     {
       listener.refreshed();
     }
   }
 
-  private void notify( IResource res, RefreshKind kind  )
+  /**
+   * Notify listeners that {@code modules} were rebuilt or removed, see {@link IModuleUpdateListener}. Other listeners
+   * are refreshed unless they belong to a module that is kept, since a kept module's types depend only on kept modules.
+   */
+  public void modulesReplaced( Set<ManModule> modules )
+  {
+    for( ITypeSystemListener listener : getListeners() )
+    {
+      if( listener instanceof IModuleUpdateListener )
+      {
+        ((IModuleUpdateListener)listener).modulesReplaced( modules );
+      }
+      else
+      {
+        ManModule owner = _listenerModules.get( listener );
+        if( owner == null || modules.contains( owner ) )
+        {
+          listener.refreshed();
+        }
+      }
+    }
+  }
+
+  /**
+   * Notify listeners of a batch of file changes. Listeners implementing {@link IBulkTypeSystemListener} receive one
+   * request per module and refresh kind, other listeners receive a request per file. Deletions are processed first,
+   * then creations, then modifications.
+   */
+  void notifyBulk( Map<IResource, RefreshKind> changes )
+  {
+    for( RefreshKind kind: new RefreshKind[] {RefreshKind.DELETION, RefreshKind.CREATION, RefreshKind.MODIFICATION} )
+    {
+      Map<IModule, List<RefreshRequest>> requestsByModule = new LinkedHashMap<>();
+      changes.forEach( ( res, k ) -> {
+        if( k == kind )
+        {
+          makeRequests( res, kind, requestsByModule );
+        }
+      } );
+      requestsByModule.forEach( ( module, requests ) -> notify( new BulkRefreshRequest( module, kind, requests ) ) );
+    }
+  }
+
+  private void notify( IResource res, RefreshKind kind )
+  {
+    Map<IModule, List<RefreshRequest>> requestsByModule = new LinkedHashMap<>();
+    makeRequests( res, kind, requestsByModule );
+    requestsByModule.forEach( ( module, requests ) -> notify( new BulkRefreshRequest( module, kind, requests ) ) );
+  }
+
+  private void makeRequests( IResource res, RefreshKind kind, Map<IModule, List<RefreshRequest>> requestsByModule )
   {
     if( !(res instanceof IFile) )
     {
@@ -177,24 +255,80 @@ public class ManRefreshListener
         // at least notify the module containing the file (e.g., for extensions classes)
         Set<String> fqnByModule = new LinkedHashSet<>();
         ManModule manModule = ManProject.getModule( moduleForFile );
+        manModule.removeTypesForFile( file );
         manModule.addFromPath( file, fqnByModule );
-        notify( manModule, file, fqnByModule, kind );
+        addRequest( manModule, file, fqnByModule, kind, requestsByModule );
       }
       return;
     }
 
-    Map<IModule, Set<String>> moduleToFqns = new HashMap<>();
+    if( isUnchangedContent( file, kind ) )
+    {
+      // e.g., save-all, a reformat that changes nothing, a touched timestamp
+      return;
+    }
+
+    Map<ManModule, List<ITypeManifold>> moduleToTms = new LinkedHashMap<>();
     for( ITypeManifold tm: tms )
     {
-      Set<String> fqnByModule = moduleToFqns.computeIfAbsent( tm.getModule(), e -> new LinkedHashSet<>() );
-      ((ManModule)tm.getModule()).addFromPath( file, fqnByModule );
-      fqnByModule.addAll( Arrays.asList( tm.getTypesForFile( file ) ) );
-      if( tm instanceof IExtensionClassProducer )
+      moduleToTms.computeIfAbsent( (ManModule)tm.getModule(), e -> new ArrayList<>() ).add( tm );
+    }
+    moduleToTms.forEach( ( module, moduleTms ) -> {
+      // the indexed types reflect the file before this change, the entry is recomputed on demand after it
+      String[] indexed = module.removeTypesForFile( file );
+      Set<String> fqns = new LinkedHashSet<>();
+      if( indexed != null )
       {
-        fqnByModule.addAll( ((IExtensionClassProducer)tm).getExtendedTypesForFile( file ) );
+        fqns.addAll( Arrays.asList( indexed ) );
       }
+      if( indexed == null || kind != RefreshKind.DELETION )
+      {
+        // a modification can add types, refresh both the old and the current ones
+        module.addTypesForFile( file, moduleTms, fqns );
+      }
+      addRequest( module, file, fqns, kind, requestsByModule );
+    } );
+  }
+
+  /**
+   * Tracks the content of files contributing to types as changes to them are delivered.
+   *
+   * @return True if {@code kind} is a modification and the content of {@code file} is the same as it was when the last
+   * change to it was delivered, in which case listeners have nothing to refresh
+   */
+  private boolean isUnchangedContent( IFile file, RefreshKind kind )
+  {
+    String path = file.getPath().getPathString();
+    if( kind == RefreshKind.DELETION )
+    {
+      _contentFingerprints.remove( path );
+      return false;
+    }
+
+    FP64 fp = fingerprint( file );
+    if( fp == null )
+    {
+      _contentFingerprints.remove( path );
+      return false;
+    }
+    FP64 prior = _contentFingerprints.put( path, fp );
+    return kind == RefreshKind.MODIFICATION && fp.equals( prior );
+  }
+
+  private static FP64 fingerprint( IFile file )
+  {
+    if( file instanceof IFileFragment )
+    {
+      return null;
+    }
+    try
+    {
+      return FileUtil.extendFingerprint( new FP64(), file );
+    }
+    catch( IOException e )
+    {
+      return null;
     }
-    moduleToFqns.forEach( (module, fqns) -> notify( module, file, fqns, kind ) );
   }
 
   private boolean isModuleInfo( IResource res )
@@ -202,45 +336,69 @@ public class ManRefreshListener
     return res instanceof IFile && res.getName().equals( "module-info.java" );
   }
 
-  private void notify( IModule module, IFile file, Set<String> result, RefreshKind kind )
+  private void addRequest( IModule module, IFile file, Set<String> result, RefreshKind kind,
+                           Map<IModule, List<RefreshRequest>> requestsByModule )
   {
     RefreshRequest request = new RefreshRequest( file, result.toArray( new String[0] ), module, kind );
+    requestsByModule.computeIfAbsent( module, m -> new ArrayList<>() ).add( request );
+  }
+
+  private void notify( BulkRefreshRequest request )
+  {
+    ManModule module = request.module instanceof ManModule ? (ManModule)request.module : null;
+    if( module != null )
+    {
+      // types may have been added or removed
+      module.invalidateTypeManifoldLookups();
+    }
+
     List<ITypeSystemListener> listeners = getListeners();
-    switch( kind )
+    switch( request.kind )
     {
       case CREATION:
       case MODIFICATION:
         // for creation the file system needs to be updated *before* other listeners
-        notifyEarlyListeners( request, listeners );
-        notifyNonearlyListeners( request, listeners );
+        notifyListeners( request, listeners, true );
+        notifyListeners( request, listeners, false );
         break;
 
       case DELETION:
         // for deletion the file system needs to be updated *after* other listeners
-        notifyNonearlyListeners( request, listeners );
-        notifyEarlyListeners( request, listeners );
+        notifyListeners( request, listeners, false );
+        notifyListeners( request, listeners, true );
         break;
     }
-  }
 
-  private void notifyNonearlyListeners( RefreshRequest request, List<ITypeSystemListener> listeners )
-  {
-    for( ITypeSystemListener listener : listeners )
+    if( module != null )
     {
-      if( !listener.notifyEarly() )
+      // drop entries computed while the listeners were updating
+      for( RefreshRequest fileRequest : request.requests )
       {
-        listener.refreshedTypes( request );
+        module.removeTypesForFile( fileRequest.file );
       }
+      module.invalidateTypeManifoldLookups();
     }
   }
 
-  private void notifyEarlyListeners( RefreshRequest request, List<ITypeSystemListener> listeners )
+  private void notifyListeners( BulkRefreshRequest request, List<ITypeSystemListener> listeners, boolean early )
   {
     for( ITypeSystemListener listener : listeners )
     {
-      if( listener.notifyEarly() )
+      if( listener.notifyEarly() != early )
       {
-        listener.refreshedTypes( request );
+        continue;
+      }
+
+      if( listener instanceof IBulkTypeSystemListener )
+      {
+        ((IBulkTypeSystemListener)listener).refreshedTypes( request );
+      }
+      else
+      {
+        for( RefreshRequest fileRequest : request.requests )
+        {
+          listener.refreshedTypes( fileRequest );
+        }
       }
     }
   }
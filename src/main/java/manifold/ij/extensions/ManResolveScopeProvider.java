@@ -30,7 +30,6 @@ import com.intellij.psi.search.GlobalSearchScope;
 import java.util.Set;
 
 import com.intellij.psi.search.SearchScope;
-import manifold.api.type.ContributorKind;
 import manifold.api.type.ITypeManifold;
 import manifold.ij.core.ManModule;
 import manifold.ij.core.ManProject;
@@ -101,7 +100,7 @@ public class ManResolveScopeProvider extends ResolveScopeEnlarger
 
   private boolean isTypeExtendedInModule( String fqn, ManModule module )
   {
-    Set<ITypeManifold> tms = module.super_findTypeManifoldsFor( fqn, tm -> tm.getContributorKind() == ContributorKind.Supplemental );
+    Set<ITypeManifold> tms = module.findTypeManifoldsFor( fqn, ManModule.TypeManifoldKind.Supplemental );
     return !tms.isEmpty();
   }
 }
\ No newline at end of file
@@ -30,14 +30,22 @@ import com.intellij.psi.search.PsiShortNamesCache;
 import com.intellij.psi.util.ClassUtil;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.Processor;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import manifold.api.host.AbstractTypeSystemListener;
 import manifold.api.host.Dependency;
+import manifold.api.host.RefreshKind;
+import manifold.api.host.RefreshRequest;
 import manifold.api.type.ContributorKind;
 import manifold.api.type.ITypeManifold;
 import manifold.ij.core.ManModule;
 import manifold.ij.core.ManProject;
+import manifold.util.concurrent.ConcurrentHashSet;
+import manifold.util.concurrent.ConcurrentWeakHashMap;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
@@ -46,6 +54,14 @@ import org.jetbrains.annotations.NotNull;
 public class ManShortNamesCache extends PsiShortNamesCache
 {
   private final PsiManagerEx _psiManager;
+  private final Map<ManModule, ModuleNameIndex> _indexPerModule;
+  // bumped before a module's index is patched or dropped, an index built concurrently with a bump is not kept
+  private final Map<ManModule, AtomicInteger> _indexStamps;
+  private final IndexUpdater _indexUpdater;
+  private volatile AllClassNames _allClassNames;
+  // changes on every index update, names collected concurrently with an update are not reused
+  private final AtomicInteger _stamp = new AtomicInteger();
+  private volatile ManRefreshListener _listeningTo;
 
 //  public ManShortNamesCache( PsiManagerEx manager )
 //  {
@@ -56,6 +72,9 @@ public class ManShortNamesCache extends PsiShortNamesCache
   public ManShortNamesCache( Project project )
   {
     _psiManager = (PsiManagerEx)PsiManager.getInstance( project );
+    _indexPerModule = new ConcurrentWeakHashMap<>();
+    _indexStamps = new ConcurrentWeakHashMap<>();
+    _indexUpdater = new IndexUpdater();
   }
 
   @NotNull
@@ -88,20 +107,12 @@ public class ManShortNamesCache extends PsiShortNamesCache
     }
     visited.add( module );
 
-    for( ITypeManifold tm: module.getTypeManifolds() )
+    for( String fqn: getIndex( module ).getFqns( name ) )
     {
-      for( String fqn: tm.getAllTypeNames() )
+      PsiClass psiClass = ManifoldPsiClassCache.getPsiClass( module, fqn );
+      if( psiClass != null )
       {
-        String simpleName = ClassUtil.extractClassName( fqn );
-        if( simpleName.equals( name ) )
-        {
-          PsiClass psiClass = ManifoldPsiClassCache.getPsiClass( module, fqn );
-          if( psiClass == null )
-          {
-            return;
-          }
-          psiClasses.add( psiClass );
-        }
+        psiClasses.add( psiClass );
       }
     }
     for( Dependency d: module.getDependencies() )
@@ -122,9 +133,34 @@ public class ManShortNamesCache extends PsiShortNamesCache
       return ArrayUtil.EMPTY_STRING_ARRAY;
     }
 
-    HashSet<String> names = new HashSet<>();
-    getAllClassNames( names );
-    return names.toArray( new String[0] );
+    int stamp = _stamp.get();
+    AllClassNames allClassNames = _allClassNames;
+    if( allClassNames == null || allClassNames._stamp != stamp )
+    {
+      HashSet<String> names = new HashSet<>();
+      getAllClassNames( names );
+      _allClassNames = allClassNames = new AllClassNames( stamp, names.toArray( new String[0] ) );
+    }
+    // callers may modify the array
+    return allClassNames._names.clone();
+  }
+
+  private void invalidateAllClassNames()
+  {
+    _stamp.incrementAndGet();
+    _allClassNames = null;
+  }
+
+  private static class AllClassNames
+  {
+    private final int _stamp;
+    private final String[] _names;
+
+    AllClassNames( int stamp, String[] names )
+    {
+      _stamp = stamp;
+      _names = names;
+    }
   }
 
   private void getAllClassNames( HashSet<String> dest )
@@ -148,20 +184,181 @@ public class ManShortNamesCache extends PsiShortNamesCache
     }
     visited.add( module );
 
-    for( ITypeManifold tm: module.getTypeManifolds() )
+    dest.addAll( getIndex( module ).getPrimarySimpleNames() );
+    for( Dependency d : module.getDependencies() )
     {
-      if( tm.getContributorKind() == ContributorKind.Supplemental )
+      if( module == start || d.isExported() )
       {
-        continue;
+        findClassFqns( dest, start, (ManModule)d.getModule(), visited );
       }
-      dest.addAll( tm.getAllTypeNames().stream().map( ClassUtil::extractClassName ).collect( Collectors.toList() ) );
     }
-    for( Dependency d : module.getDependencies() )
+  }
+
+  private ModuleNameIndex getIndex( ManModule module )
+  {
+    listenToChanges( module.getProject() );
+    ModuleNameIndex index = _indexPerModule.get( module );
+    if( index != null )
     {
-      if( module == start || d.isExported() )
+      return index;
+    }
+
+    AtomicInteger stamp = getIndexStamp( module );
+    int startStamp = stamp.get();
+    index = new ModuleNameIndex( module );
+    ModuleNameIndex existing = _indexPerModule.putIfAbsent( module, index );
+    if( existing != null )
+    {
+      return existing;
+    }
+    if( stamp.get() != startStamp )
+    {
+      // a refresh arrived while the index was built, it may have missed the change, the next lookup builds it again
+      _indexPerModule.remove( module, index );
+    }
+    return index;
+  }
+
+  private AtomicInteger getIndexStamp( ManModule module )
+  {
+    return _indexStamps.computeIfAbsent( module, key -> new AtomicInteger() );
+  }
+
+  private void listenToChanges( ManProject project )
+  {
+    ManRefreshListener refresher = project.getFileModificationManager().getManRefresher();
+    if( _listeningTo != refresher )
+    {
+      _listeningTo = refresher;
+      refresher.addTypeSystemListenerAsWeakRef( _indexUpdater );
+    }
+  }
+
+  /**
+   * Simple name to FQN index of the types provided by a module's own type manifolds. The index is built on first use
+   * and is patched from refresh requests thereafter, so a lookup costs O(matches) instead of walking every type name.
+   */
+  private static class ModuleNameIndex
+  {
+    private final ManModule _module;
+    // simple name -> fqns, for all type manifolds
+    private final Map<String, Set<String>> _fqnsBySimpleName;
+    // simple name -> fqns, for Primary and Partial type manifolds
+    private final Map<String, Set<String>> _primaryFqnsBySimpleName;
+
+    ModuleNameIndex( ManModule module )
+    {
+      _module = module;
+      _fqnsBySimpleName = new ConcurrentHashMap<>();
+      _primaryFqnsBySimpleName = new ConcurrentHashMap<>();
+      for( ITypeManifold tm: module.getTypeManifolds() )
       {
-        findClassFqns( dest, start, (ManModule)d.getModule(), visited );
+        for( String fqn: tm.getAllTypeNames() )
+        {
+          add( tm, fqn );
+        }
+      }
+    }
+
+    Set<String> getFqns( String simpleName )
+    {
+      return _fqnsBySimpleName.getOrDefault( simpleName, Collections.emptySet() );
+    }
+
+    Set<String> getPrimarySimpleNames()
+    {
+      return _primaryFqnsBySimpleName.keySet();
+    }
+
+    /**
+     * Re-index {@code fqn} after it was created or modified. A modification may remove a type, so the name is indexed
+     * only under the type manifolds still providing it.
+     */
+    void refreshed( String fqn )
+    {
+      removed( fqn );
+      for( ITypeManifold tm: _module.getTypeManifolds() )
+      {
+        if( tm.isType( fqn ) )
+        {
+          add( tm, fqn );
+        }
+      }
+    }
+
+    void removed( String fqn )
+    {
+      String simpleName = ClassUtil.extractClassName( fqn );
+      remove( _fqnsBySimpleName, simpleName, fqn );
+      remove( _primaryFqnsBySimpleName, simpleName, fqn );
+    }
+
+    private void add( ITypeManifold tm, String fqn )
+    {
+      String simpleName = ClassUtil.extractClassName( fqn );
+      _fqnsBySimpleName.computeIfAbsent( simpleName, key -> new ConcurrentHashSet<>() ).add( fqn );
+      if( tm.getContributorKind() != ContributorKind.Supplemental )
+      {
+        _primaryFqnsBySimpleName.computeIfAbsent( simpleName, key -> new ConcurrentHashSet<>() ).add( fqn );
+      }
+    }
+
+    private static void remove( Map<String, Set<String>> index, String simpleName, String fqn )
+    {
+      index.computeIfPresent( simpleName, ( key, fqns ) -> {
+        fqns.remove( fqn );
+        return fqns.isEmpty() ? null : fqns;
+      } );
+    }
+  }
+
+  private class IndexUpdater extends AbstractTypeSystemListener implements IModuleUpdateListener
+  {
+    @Override
+    public void refreshedTypes( RefreshRequest request )
+    {
+      // an index not built yet will reflect the change when it is, one being built is discarded
+      ManModule module = (ManModule)request.module;
+      getIndexStamp( module ).incrementAndGet();
+      ModuleNameIndex index = _indexPerModule.get( module );
+      if( index != null )
+      {
+        for( String fqn: request.types )
+        {
+          if( request.kind == RefreshKind.DELETION )
+          {
+            index.removed( fqn );
+          }
+          else
+          {
+            index.refreshed( fqn );
+          }
+        }
+      }
+      // after the index is patched, names collected from the patched index are kept
+      invalidateAllClassNames();
+    }
+
+    @Override
+    public void refreshed()
+    {
+      for( AtomicInteger stamp: _indexStamps.values() )
+      {
+        stamp.incrementAndGet();
+      }
+      _indexPerModule.clear();
+      invalidateAllClassNames();
+    }
+
+    @Override
+    public void modulesReplaced( Set<ManModule> modules )
+    {
+      for( ManModule module: modules )
+      {
+        getIndexStamp( module ).incrementAndGet();
+        _indexPerModule.remove( module );
       }
+      invalidateAllClassNames();
     }
   }
 
@@ -38,8 +38,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import manifold.api.type.ITypeManifold;
 import manifold.api.type.TypeName;
@@ -56,11 +58,12 @@ import static manifold.api.type.ContributorKind.Supplemental;
 public class ManTypeFinder extends PsiElementFinder
 {
   private final Project _project;
-
+  private final TypeNameFilter _typeNameFilter;
 
   public ManTypeFinder( Project project )
   {
     _project = project;
+    _typeNameFilter = new TypeNameFilter();
   }
 
   @Override
@@ -80,6 +83,11 @@ public class ManTypeFinder extends PsiElementFinder
       return PsiClass.EMPTY_ARRAY;
     }
 
+    if( !_typeNameFilter.mightBeType( ManProject.manProjectFrom( project ), fqn ) )
+    {
+      return PsiClass.EMPTY_ARRAY;
+    }
+
     Set<PsiClass> psiClasses = new LinkedHashSet<>();
     List<ManModule> modules = findModules( globalSearchScope );
     for( ManModule m : modules )
@@ -110,6 +118,11 @@ public class ManTypeFinder extends PsiElementFinder
       return null;
     }
 
+    if( !_typeNameFilter.mightBeType( ManProject.manProjectFrom( project ), fqn ) )
+    {
+      return null;
+    }
+
     List<ManModule> modules = findModules( globalSearchScope );
 
     for( ManModule m : modules )
@@ -159,6 +172,8 @@ public class ManTypeFinder extends PsiElementFinder
     Set<PsiClass> children = new HashSet<>();
     for( ManModule mm : modules )
     {
+      // type names in the package by top-level name, several names may share a top-level type
+      Map<String, List<String>> typesByTopLevel = new LinkedHashMap<>();
       for( ITypeManifold sp : mm.getTypeManifolds() )
       {
         if( sp.getContributorKind() == Supplemental )
@@ -171,14 +186,13 @@ public class ManTypeFinder extends PsiElementFinder
         {
           if( child.kind == TypeName.Kind.TYPE )
           {
-            PsiClass psiClass = ManifoldPsiClassCache.getPsiClass( mm, child.name );
-            if( psiClass != null )
-            {
-              children.add( psiClass );
-            }
+            typesByTopLevel.computeIfAbsent( findTopLevelFqn( sp, child.name ), key -> new ArrayList<>() )
+              .add( child.name );
           }
         }
       }
+
+      children.addAll( ManifoldPsiClassCache.getPsiClasses( mm, typesByTopLevel ) );
     }
     if( !children.isEmpty() )
     {
@@ -187,6 +201,18 @@ public class ManTypeFinder extends PsiElementFinder
     return super.getClasses( psiPackage, scope );
   }
 
+  private static String findTopLevelFqn( ITypeManifold tm, String fqn )
+  {
+    try
+    {
+      return ManifoldPsiClassCache.findTopLevelFqn( tm, fqn );
+    }
+    catch( IllegalStateException ise )
+    {
+      return fqn;
+    }
+  }
+
   @Override
   public PsiClass[] getClasses( String className, PsiPackage psiPackage, GlobalSearchScope scope )
   {
@@ -252,6 +252,11 @@ public class ManifoldPsiClass extends LightClass
     return _manModule.getIjModule();
   }
 
+  public ManModule getManModule()
+  {
+    return _manModule;
+  }
+
   public DiagnosticCollector getIssues()
   {
     return _issues;
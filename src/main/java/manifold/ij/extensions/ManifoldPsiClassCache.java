@@ -23,11 +23,16 @@
 
 package manifold.ij.extensions;
 
+import com.intellij.concurrency.JobLauncher;
 import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.ide.util.PropertiesComponent;
 import com.intellij.lang.Language;
 import com.intellij.lang.java.JavaLanguage;
 import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.module.Module;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
@@ -35,21 +40,26 @@ import com.intellij.psi.impl.PsiFileFactoryImpl;
 import com.intellij.psi.impl.PsiManagerImpl;
 import com.intellij.psi.impl.PsiModificationTrackerImpl;
 import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.ClassUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.tools.DiagnosticCollector;
 import javax.tools.JavaFileObject;
 
 import manifold.api.fs.IFile;
 import manifold.api.fs.IFileFragment;
 import manifold.api.host.AbstractTypeSystemListener;
-import manifold.api.host.Dependency;
 import manifold.api.host.RefreshRequest;
 import manifold.api.type.ITypeManifold;
 import manifold.ij.android.BuildVariantSymbols;
 import manifold.ij.core.ManModule;
 import manifold.ij.core.ManProject;
+import manifold.ij.fs.IjFile;
 import manifold.ij.util.ReparseUtil;
 import manifold.internal.javac.FragmentProcessor;
 import manifold.api.util.cache.FqnCache;
@@ -58,6 +68,7 @@ import manifold.api.util.cache.IllegalTypeNameException;
 import manifold.preprocessor.definitions.ServiceDefinitions;
 import manifold.util.concurrent.ConcurrentHashSet;
 import manifold.util.concurrent.ConcurrentWeakHashMap;
+import manifold.util.concurrent.LocklessLazyVar;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -68,21 +79,54 @@ import static manifold.api.type.ContributorKind.*;
  * Caches instances of {@link ManifoldPsiClass} corresponding with type manifold
  * {@link manifold.api.type.ContributorKind#Primary} class names.
  */
-public class ManifoldPsiClassCache extends AbstractTypeSystemListener
+public class ManifoldPsiClassCache extends AbstractTypeSystemListener implements IBulkTypeSystemListener, IModuleUpdateListener
 {
+  private static final String MANIFOLD_CONCURRENT_TYPE_LOOKUP = "manifold.concurrent.type.lookup";
+  private static final LocklessLazyVar<boolean[]> CONCURRENT_TYPE_LOOKUP = LocklessLazyVar.make( () ->
+    new boolean[] {PropertiesComponent.getInstance().getBoolean( MANIFOLD_CONCURRENT_TYPE_LOOKUP )} );
+  private static final int TYPE_LOCK_STRIPES = 64;
+  private static final long NESTED_TYPE_LOCK_WAIT_MS = 200;
+  private static final Logger LOG = Logger.getInstance( ManifoldPsiClassCache.class );
+  private static final String MANIFOLD_ASYNC_TYPE_GENERATION = "manifold.async.type.generation";
+  private static final LocklessLazyVar<boolean[]> ASYNC_TYPE_GENERATION = LocklessLazyVar.make( () ->
+    new boolean[] {PropertiesComponent.getInstance().getBoolean( MANIFOLD_ASYNC_TYPE_GENERATION )} );
+  static final String MANIFOLD_ASYNC_TYPE_THRESHOLD_KB = "manifold.async.type.threshold.kb";
+  private static final LocklessLazyVar<ExecutorService> ASYNC_TYPE_EXECUTOR = LocklessLazyVar.make( () ->
+    AppExecutorUtil.createBoundedApplicationPoolExecutor( "Manifold Type Generation", 2 ) );
+
   private final ManProject _project;
+  private final boolean _concurrent;
   private Set<Project> _addedListeners;
   private final ThreadLocal<Set<String>> _shortCircuit;
-  private ConcurrentHashMap<String, PsiClass> _filePathToPsi;
+  private final ReentrantLock[] _typeLocks;
+  private final ThreadLocal<int[]> _typeLocksHeld;
+  private final TypeGenerations _generations;
+  private final ConcurrentHashMap<String, PsiClass> _filePathToPsi;
   private final Map<ManModule, FqnCache<ManifoldPsiClass>> _fqnPsiCachePerModule;
+  private final ContributedSourceCache _sourceCache;
+  private final TypeCacheEvictionPolicy _evictionPolicy;
+  private final Map<String, Object> _pendingAsyncTypes;
+  private final Set<String> _failedAsyncTypes;
 
   public ManifoldPsiClassCache( ManProject project )
   {
     _project = project;
+    _concurrent = isConcurrentTypeLookupEnabled();
     _addedListeners = new ConcurrentHashSet<>();
     _shortCircuit = ThreadLocal.withInitial( () -> new ConcurrentHashSet<>() );
     _filePathToPsi = new ConcurrentHashMap<>();
     _fqnPsiCachePerModule = new ConcurrentWeakHashMap<>();
+    _typeLocks = new ReentrantLock[TYPE_LOCK_STRIPES];
+    for( int i = 0; i < TYPE_LOCK_STRIPES; i++ )
+    {
+      _typeLocks[i] = new ReentrantLock();
+    }
+    _typeLocksHeld = ThreadLocal.withInitial( () -> new int[1] );
+    _generations = new TypeGenerations( TYPE_LOCK_STRIPES );
+    _sourceCache = new ContributedSourceCache( project );
+    _evictionPolicy = new TypeCacheEvictionPolicy();
+    _pendingAsyncTypes = new ConcurrentHashMap<>();
+    _failedAsyncTypes = new ConcurrentHashSet<>();
   }
 
   public ManProject getProject()
@@ -90,6 +134,45 @@ public class ManifoldPsiClassCache extends AbstractTypeSystemListener
     return _project;
   }
 
+  /**
+   * When enabled, lookups no longer serialize on this cache's monitor. Instead type creation is guarded per top-level
+   * FQN so that independent types can be created in parallel. The setting is read once when a project's cache is
+   * created, see {@link #isConcurrent()}.
+   */
+  static boolean isConcurrentTypeLookupEnabled()
+  {
+    return CONCURRENT_TYPE_LOOKUP.get()[0];
+  }
+  static void setConcurrentTypeLookupEnabled( boolean enabled )
+  {
+    CONCURRENT_TYPE_LOOKUP.get()[0] = enabled;
+    PropertiesComponent.getInstance().setValue( MANIFOLD_CONCURRENT_TYPE_LOOKUP, enabled );
+  }
+
+  /**
+   * When enabled, a top-level type whose resource files exceed {@link #MANIFOLD_ASYNC_TYPE_THRESHOLD_KB} is generated
+   * in the background. Meanwhile lookups get a placeholder class without members. When the type is ready it replaces
+   * the placeholder and PSI is notified to re-resolve.
+   */
+  static boolean isAsyncTypeGenerationEnabled()
+  {
+    return ASYNC_TYPE_GENERATION.get()[0];
+  }
+  static void setAsyncTypeGenerationEnabled( boolean enabled )
+  {
+    ASYNC_TYPE_GENERATION.get()[0] = enabled;
+    PropertiesComponent.getInstance().setValue( MANIFOLD_ASYNC_TYPE_GENERATION, enabled );
+  }
+
+  /**
+   * @return True if this cache creates types concurrently. Fixed for the life of the cache, changing the setting
+   * while lookups are in flight would mix locking schemes.
+   */
+  boolean isConcurrent()
+  {
+    return _concurrent;
+  }
+
   public static PsiClass getPsiClass( ManModule module, String fqn )
   {
     return module.getProject().getPsiClassCache()._getPsiClass( module, fqn );
@@ -98,7 +181,119 @@ public class ManifoldPsiClassCache extends AbstractTypeSystemListener
    * This method is for internal use, call {@link com.intellij.psi.JavaPsiFacade#findClass(String, GlobalSearchScope)}
    * instead, which will delegate to this method if appropriate.
    */
-  synchronized PsiClass _getPsiClass( ManModule module, String fqn )
+  PsiClass _getPsiClass( ManModule module, String fqn )
+  {
+    if( _concurrent )
+    {
+      return getPsiClass_Unsynchronized( module, fqn );
+    }
+
+    synchronized( this )
+    {
+      return getPsiClass_Unsynchronized( module, fqn );
+    }
+  }
+
+  /**
+   * Look up the types of a package listing, see {@link ManTypeFinder#getClasses(PsiPackage, GlobalSearchScope)}. The
+   * cache is acquired once for the whole listing and each top-level type is created once for all the names in its
+   * nest. In concurrent mode the missing top-level types are created in parallel.
+   *
+   * @param typesByTopLevel The type names to look up by the names of their top-level types
+   * @return The types found
+   */
+  public static List<PsiClass> getPsiClasses( ManModule module, Map<String, List<String>> typesByTopLevel )
+  {
+    return module.getProject().getPsiClassCache()._getPsiClasses( module, typesByTopLevel );
+  }
+  List<PsiClass> _getPsiClasses( ManModule module, Map<String, List<String>> typesByTopLevel )
+  {
+    if( _concurrent )
+    {
+      prefetchTypes( module, typesByTopLevel.keySet() );
+      return getPsiClasses_Unsynchronized( module, typesByTopLevel );
+    }
+
+    synchronized( this )
+    {
+      return getPsiClasses_Unsynchronized( module, typesByTopLevel );
+    }
+  }
+
+  private List<PsiClass> getPsiClasses_Unsynchronized( ManModule module, Map<String, List<String>> typesByTopLevel )
+  {
+    List<PsiClass> result = new ArrayList<>();
+    for( List<String> fqns: typesByTopLevel.values() )
+    {
+      for( String fqn: fqns )
+      {
+        PsiClass psiClass = getPsiClass_Unsynchronized( module, fqn );
+        if( psiClass != null )
+        {
+          result.add( psiClass );
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Create the missing top-level types concurrently, one task per type. The lookups that follow are then answered
+   * from the cache.
+   * <p/>
+   * The tasks act on behalf of this thread. They share its short-circuit names, so a type this thread is creating is
+   * not created again by a task. And this thread may hold a type lock while it waits for them, so the tasks wait only
+   * briefly for type locks, see {@link #lockType(String)}.
+   */
+  private void prefetchTypes( ManModule module, Collection<String> topLevelFqns )
+  {
+    List<String> missing = new ArrayList<>();
+    for( String fqn: topLevelFqns )
+    {
+      if( !isShortCircuit( fqn ) && getCached( module, fqn ) == null )
+      {
+        missing.add( fqn );
+      }
+    }
+    if( missing.size() < 2 )
+    {
+      return;
+    }
+
+    Set<String> shortCircuit = new HashSet<>( _shortCircuit.get() );
+    // the tasks run in a read action if this thread holds one
+    JobLauncher.getInstance().invokeConcurrentlyUnderProgress( missing,
+      ProgressManager.getInstance().getProgressIndicator(), fqn -> {
+        prefetchType( module, fqn, shortCircuit );
+        return true;
+      } );
+  }
+
+  private void prefetchType( ManModule module, String fqn, Set<String> callerShortCircuit )
+  {
+    Set<String> shortCircuit = _shortCircuit.get();
+    List<String> added = new ArrayList<>();
+    for( String name: callerShortCircuit )
+    {
+      if( shortCircuit.add( name ) )
+      {
+        added.add( name );
+      }
+    }
+    int[] held = _typeLocksHeld.get();
+    held[0]++;
+    try
+    {
+      getPsiClass_Unsynchronized( module, fqn );
+    }
+    finally
+    {
+      held[0]--;
+      shortCircuit.removeAll( added );
+    }
+  }
+
+  private PsiClass getPsiClass_Unsynchronized( ManModule module, String fqn )
   {
     if( isShortCircuit( fqn ) )
     {
@@ -161,28 +356,33 @@ public class ManifoldPsiClassCache extends AbstractTypeSystemListener
       listenToChanges( module.getProject() );
 
       // Find cached type...
-      ManifoldPsiClass cached = getCached( module, module, fqn );
+      ManifoldPsiClass cached = getCached( module, fqn );
       if( cached != null )
       {
+        _evictionPolicy.hit( cached.getUserData( TypeCacheEvictionPolicy.KEY_ENTRY ) );
         return cached;
       }
+      _evictionPolicy.missed();
 
       // Create new module-specific type...
-      FqnCacheNode<ManifoldPsiClass> node;
       try
       {
-        node = createPrimaryType( module, fqn );
+        return createPrimaryType( module, fqn );
       }
       catch( IllegalTypeNameException itne )
       {
         // Handle the case where IntelliJ tries to resolve something untype-like
-        node = null;
+        return null;
+      }
+      catch( ProcessCanceledException pce )
+      {
+        // nothing is cached for a canceled creation, the next lookup tries again
+        throw pce;
       }
       catch( Exception e )
       {
         return PsiErrorClassUtil.create( module.getIjProject(), e );
       }
-      return node == null ? null : node.getUserData();
     }
     finally
     {
@@ -190,36 +390,28 @@ public class ManifoldPsiClassCache extends AbstractTypeSystemListener
     }
   }
 
-  private ManifoldPsiClass getCached( ManModule module, ManModule start, String fqn )
+  private ManifoldPsiClass getCached( ManModule module, String fqn )
   {
-    FqnCache<ManifoldPsiClass> fqnPsiCache = _fqnPsiCachePerModule.get( module );
-    FqnCacheNode<ManifoldPsiClass> node = fqnPsiCache == null ? null : fqnPsiCache.getNode( fqn );
-    if( node != null )
+    for( ManModule visible: module.getVisibleModules() )
     {
-      ManifoldPsiClass psiFacadeClass = node.getUserData();
-      if( psiFacadeClass != null && psiFacadeClass.isValid() )
+      FqnCache<ManifoldPsiClass> fqnPsiCache = _fqnPsiCachePerModule.get( visible );
+      if( fqnPsiCache == null )
       {
-        Module targetModule = psiFacadeClass.getModule();
-        GlobalSearchScope scope = GlobalSearchScope.moduleWithDependenciesScope( module.getIjModule() );
-        if( scope.isSearchInModuleContent( targetModule ) )
-        {
-          return psiFacadeClass;
-        }
+        continue;
       }
-    }
-
-    for( Dependency d: module.getDependencies() )
-    {
-      if( module == start || d.isExported() )
+      ManifoldPsiClass psiFacadeClass;
+      synchronized( fqnPsiCache )
       {
-        ManifoldPsiClass cached = getCached( (ManModule) d.getModule(), start, fqn );
-        if( cached != null )
-        {
-          return cached;
-        }
+        // FqnCache is not safe for reads concurrent with writes
+        FqnCacheNode<ManifoldPsiClass> node = fqnPsiCache.getNode( fqn );
+        psiFacadeClass = node == null ? null : node.getUserData();
+      }
+      if( psiFacadeClass != null && psiFacadeClass.isValid() &&
+        visible.getModuleWithDependenciesScope().isSearchInModuleContent( psiFacadeClass.getModule() ) )
+      {
+        return psiFacadeClass;
       }
     }
-
     return null;
   }
 
@@ -282,44 +474,311 @@ public class ManifoldPsiClassCache extends AbstractTypeSystemListener
   /**
    * Create a type corresponding with a Primary or Partial type manifold, as opposed to a Supplemental one.
    */
-  private FqnCacheNode<ManifoldPsiClass> createPrimaryType( ManModule module, String fqn )
+  private ManifoldPsiClass createPrimaryType( ManModule module, String fqn )
   {
-    Set<ITypeManifold> tms = module.findTypeManifoldsFor( fqn, tm -> tm.getContributorKind() == Primary ||
-                                                                     tm.getContributorKind() == Partial );
-    ITypeManifold found = null;
+    int missGeneration = _generations.getAny();
+    Set<ITypeManifold> tms = module.findTypeManifoldsFor( fqn, ManModule.TypeManifoldKind.PrimaryOrPartial );
     if( !tms.isEmpty() )
     {
-      String result = "";
-      DiagnosticCollector<JavaFileObject> issues = new DiagnosticCollector<>();
-      String topLevelFqn = null;
-      for( ITypeManifold tm : tms )
+      // MUST start with top-level class, otherwise the classes enclosing an inner class will have null userData
+      // cached with their names, preventing the them from ever loading.  So when we cache a class name we always get
+      // its outermost enclosing class and cache that and the entire nest of classes it contains, top-down.  See the
+      // cacheAll() call following the contribution.
+      String topLevelFqn = findTopLevelFqn( tms.iterator().next(), fqn );
+
+      ReentrantLock typeLock = lockType( topLevelFqn );
+      try
+      {
+        if( typeLock != null )
+        {
+          // another thread may have created the type while this one was waiting
+          ManifoldPsiClass cached = getCached( module, fqn );
+          if( cached != null )
+          {
+            return cached;
+          }
+        }
+        return contributeAndCache( tms, fqn, topLevelFqn ).get( fqn );
+      }
+      finally
+      {
+        unlockType( typeLock );
+      }
+    }
+
+    // cache the miss, unless a refresh may have added the type meanwhile
+    FqnCache<ManifoldPsiClass> fqnPsiCache = getFqnCache( module );
+    if( _generations.publishAny( missGeneration, () -> {
+      synchronized( fqnPsiCache )
+      {
+        fqnPsiCache.add( fqn );
+      }
+    } ) )
+    {
+      evict( _evictionPolicy.added( TypeCacheEvictionPolicy.newEntry( module, fqn, 0, null ) ) );
+    }
+    return null;
+  }
+
+  /**
+   * @return The created type and the types nested in it by qualified name
+   */
+  private Map<String, ManifoldPsiClass> contributeAndCache( Set<ITypeManifold> tms, String fqn, String topLevelFqn )
+  {
+    int generation = _generations.get( topLevelFqn );
+    ITypeManifold found = null;
+    for( ITypeManifold tm : tms )
+    {
+      if( found != null && (found.getContributorKind() == Primary || tm.getContributorKind() == Primary) )
+      {
+        throw new ConflictingTypeManifoldsException( fqn, found, tm );
+      }
+      found = tm;
+    }
+    ManModule actualModule = (ManModule)found.getModule();
+
+    DiagnosticCollector<JavaFileObject> issues = new DiagnosticCollector<>();
+    String fingerprint = ContributedSourceCache.isEnabled() ? _sourceCache.fingerprint( actualModule, tms, topLevelFqn ) : null;
+    String result = fingerprint == null ? null : _sourceCache.load( actualModule, tms, topLevelFqn, fingerprint );
+    if( result == null && isAsyncCandidate( actualModule, tms, topLevelFqn ) )
+    {
+      if( _pendingAsyncTypes.containsKey( asyncKey( actualModule, topLevelFqn ) ) &&
+        getCached( actualModule, topLevelFqn ) != null )
+      {
+        // e.g., a type nested in the placeholder, there are none until the type is ready
+        return Collections.emptyMap();
+      }
+      result = makePlaceholderSource( topLevelFqn );
+      generateAsync( actualModule, tms, found, topLevelFqn, fingerprint, generation );
+    }
+    else if( result == null )
+    {
+      result = contribute( actualModule, tms, topLevelFqn, fingerprint, issues );
+    }
+
+    PsiClass delegate = createPsiClass( actualModule, topLevelFqn, result );
+    Map<String, ManifoldPsiClass> nest = new LinkedHashMap<>();
+    ManifoldPsiClass psiFacadeClass = makeFacades( delegate, actualModule, found, issues, nest );
+    cacheAndTrack( psiFacadeClass, nest, generation, result );
+    return nest;
+  }
+
+  private static List<String> getFilePaths( ManifoldPsiClass psiFacadeClass )
+  {
+    List<String> filePaths = new ArrayList<>();
+    for( IFile file: psiFacadeClass.getFiles() )
+    {
+      filePaths.add( file.getPath().getPathString() );
+    }
+    return filePaths;
+  }
+
+  private String contribute( ManModule actualModule, Set<ITypeManifold> tms, String topLevelFqn, String fingerprint,
+                             DiagnosticCollector<JavaFileObject> issues )
+  {
+    String result = "";
+    for( ITypeManifold tm : tms )
+    {
+      result = tm.contribute( null, topLevelFqn, false, result, issues );
+    }
+    if( fingerprint != null && issues.getDiagnostics().isEmpty() )
+    {
+      // only clean results are persisted, diagnostics are not
+      _sourceCache.store( actualModule, tms, topLevelFqn, fingerprint, result );
+    }
+    return result;
+  }
+
+  private boolean isAsyncCandidate( ManModule actualModule, Set<ITypeManifold> tms, String topLevelFqn )
+  {
+    if( !isAsyncTypeGenerationEnabled() || ApplicationManager.getApplication().isUnitTestMode() ||
+      _failedAsyncTypes.contains( asyncKey( actualModule, topLevelFqn ) ) )
+    {
+      return false;
+    }
+
+    long threshold = PropertiesComponent.getInstance().getLong( MANIFOLD_ASYNC_TYPE_THRESHOLD_KB, 512 ) * 1024;
+    long size = 0;
+    for( ITypeManifold tm: tms )
+    {
+      for( IFile file: tm.findFilesForType( topLevelFqn ) )
+      {
+        if( file instanceof IFileFragment || !(file.getPhysicalFile() instanceof IjFile) )
+        {
+          continue;
+        }
+        VirtualFile vfile = ((IjFile)file.getPhysicalFile()).getVirtualFile();
+        if( vfile != null )
+        {
+          size += vfile.getLength();
+        }
+      }
+    }
+    return size > threshold;
+  }
+
+  private static String makePlaceholderSource( String topLevelFqn )
+  {
+    String pkg = ClassUtil.extractPackageName( topLevelFqn );
+    return (pkg.isEmpty() ? "" : "package " + pkg + ";\n\n") +
+           "// generating...\n" +
+           "public class " + ClassUtil.extractClassName( topLevelFqn ) + " {}\n";
+  }
+
+  private static String asyncKey( ManModule module, String topLevelFqn )
+  {
+    return module.getName() + ':' + topLevelFqn;
+  }
+
+  /**
+   * Generate the type in the background and replace its placeholder with the result. The result is discarded if the
+   * type is refreshed or its module is replaced in the meantime. Does nothing if the type is already pending.
+   * <p/>
+   * Generation runs in non-blocking read actions, a write action cancels it and it restarts after the write action.
+   */
+  private void generateAsync( ManModule actualModule, Set<ITypeManifold> tms, ITypeManifold found, String topLevelFqn,
+                              String fingerprint, int generation )
+  {
+    String key = asyncKey( actualModule, topLevelFqn );
+    Object token = new Object();
+    if( _pendingAsyncTypes.putIfAbsent( key, token ) != null )
+    {
+      return;
+    }
+    ASYNC_TYPE_EXECUTOR.get().execute( () -> {
+      try
       {
-        // MUST start with top-level class, otherwise the classes enclosing an inner class will have null userData
-        // cached with their names, preventing the them from ever loading.  So when we cache a class name we always get
-        // its outermost enclosing class and cache that and the entire nest of classes it contains, top-down.  See the
-        // cacheAll() call following this for loop.
-        topLevelFqn = topLevelFqn == null ? findTopLevelFqn( tm, fqn ) : topLevelFqn;
+        @SuppressWarnings( "unchecked" )
+        DiagnosticCollector<JavaFileObject>[] issues = new DiagnosticCollector[1];
+        String source = ReadAction.nonBlocking( () -> {
+          // fresh per attempt, an attempt canceled by a write action leaves its diagnostics behind
+          issues[0] = new DiagnosticCollector<>();
+          return contribute( actualModule, tms, topLevelFqn, fingerprint, issues[0] );
+        } ).executeSynchronously();
+        ReadAction.nonBlocking( () -> {
+          if( _concurrent )
+          {
+            completeAsync( key, token, actualModule, found, topLevelFqn, source, issues[0], generation );
+            return;
+          }
 
-        if( found != null && (found.getContributorKind() == Primary || tm.getContributorKind() == Primary) )
+          synchronized( this )
+          {
+            completeAsync( key, token, actualModule, found, topLevelFqn, source, issues[0], generation );
+          }
+        } ).executeSynchronously();
+      }
+      catch( Exception e )
+      {
+        if( !(e instanceof ProcessCanceledException) )
+        {
+          LOG.warn( "Failed to generate type in the background: " + topLevelFqn, e );
+        }
+        if( _pendingAsyncTypes.remove( key, token ) )
         {
-          throw new ConflictingTypeManifoldsException( fqn, found, tm );
+          // fall back to synchronous generation on the next lookup
+          _failedAsyncTypes.add( key );
+          FqnCache<ManifoldPsiClass> fqnPsiCache = getFqnCache( actualModule );
+          synchronized( fqnPsiCache )
+          {
+            fqnPsiCache.remove( topLevelFqn );
+          }
+          _evictionPolicy.removed( actualModule, topLevelFqn );
         }
-        found = tm;
-        result = tm.contribute( null, topLevelFqn, false, result, issues );
+      }
+    } );
+  }
+
+  private void completeAsync( String key, Object token, ManModule actualModule, ITypeManifold found, String topLevelFqn,
+                              String source, DiagnosticCollector<JavaFileObject> issues, int generation )
+  {
+    ReentrantLock typeLock = lockType( topLevelFqn );
+    try
+    {
+      if( _pendingAsyncTypes.get( key ) != token ||
+        actualModule.getProject().getModules().get( actualModule.getIjModule() ) != actualModule )
+      {
+        // refreshed while generating, or the module was replaced
+        return;
       }
 
-      ManModule actualModule = (ManModule)found.getModule();
-      PsiClass delegate = createPsiClass( actualModule, topLevelFqn, result );
-      cacheAll( delegate, actualModule, found, issues );
+      PsiClass delegate = createPsiClass( actualModule, topLevelFqn, source );
+      Map<String, ManifoldPsiClass> nest = new LinkedHashMap<>();
+      ManifoldPsiClass psiFacadeClass = makeFacades( delegate, actualModule, found, issues, nest );
+      // the token is removed only after caching, this may run again if a write action cancels it before then
+      if( cacheAndTrack( psiFacadeClass, nest, generation, source ) )
+      {
+        incModificationCount( psiFacadeClass );
+      }
+      _pendingAsyncTypes.remove( key, token );
+    }
+    finally
+    {
+      unlockType( typeLock );
+    }
+  }
+
+  /**
+   * Guards creation of a top-level type and its nest of inner classes. Locks are striped by top-level FQN so that
+   * unrelated types are created in parallel. A thread already creating a type (type creation can trigger resolution
+   * of other manifold types), or creating types on behalf of such a thread, see {@link #prefetchTypes}, waits only
+   * briefly on another stripe to avoid deadlocking with a thread creating types in the reverse order; if the wait
+   * expires the type is created without the lock, the worst case being a redundant creation.
+   *
+   * @return The acquired lock or null if no lock was acquired
+   */
+  ReentrantLock lockType( String topLevelFqn )
+  {
+    if( !_concurrent )
+    {
+      return null;
+    }
+
+    ReentrantLock lock = getTypeLock( topLevelFqn );
+    int[] held = _typeLocksHeld.get();
+    if( held[0] == 0 || lock.isHeldByCurrentThread() )
+    {
+      lock.lock();
+    }
+    else
+    {
+      try
+      {
+        if( !lock.tryLock( NESTED_TYPE_LOCK_WAIT_MS, TimeUnit.MILLISECONDS ) )
+        {
+          return null;
+        }
+      }
+      catch( InterruptedException e )
+      {
+        Thread.currentThread().interrupt();
+        return null;
+      }
     }
+    held[0]++;
+    return lock;
+  }
 
-    FqnCache<ManifoldPsiClass> fqnPsiCache = _fqnPsiCachePerModule.computeIfAbsent( module, key -> new FqnCache<>() );
-    if( found == null )
+  void unlockType( ReentrantLock lock )
+  {
+    if( lock != null )
     {
-      // cache the miss
-      fqnPsiCache.add( fqn );
+      _typeLocksHeld.get()[0]--;
+      lock.unlock();
     }
-    return fqnPsiCache.getNode( fqn );
+  }
+
+  /**
+   * @return The lock stripe guarding creation of {@code topLevelFqn}
+   */
+  ReentrantLock getTypeLock( String topLevelFqn )
+  {
+    return _typeLocks[(topLevelFqn.hashCode() & 0x7fffffff) % TYPE_LOCK_STRIPES];
+  }
+
+  private FqnCache<ManifoldPsiClass> getFqnCache( ManModule module )
+  {
+    return _fqnPsiCachePerModule.computeIfAbsent( module, key -> new FqnCache<>() );
   }
 
   public static String findTopLevelFqn( ITypeManifold tm, String fqn )
@@ -337,26 +796,132 @@ public class ManifoldPsiClassCache extends AbstractTypeSystemListener
     return findTopLevelFqn( tm, fqn );
   }
 
-  private void cacheAll( PsiClass delegate, ManModule actualModule, ITypeManifold tm, DiagnosticCollector<JavaFileObject> issues )
+  private ManifoldPsiClass makeFacades( PsiClass delegate, ManModule actualModule, ITypeManifold tm,
+                                        DiagnosticCollector<JavaFileObject> issues, Map<String, ManifoldPsiClass> nest )
   {
     String fqn = delegate.getQualifiedName();
     List<IFile> files = tm.findFilesForType( fqn );
     ManifoldPsiClass psiFacadeClass = new ManifoldPsiClass( delegate, actualModule, files, fqn, issues );
-    FqnCache<ManifoldPsiClass> fqnPsiCache = _fqnPsiCachePerModule.computeIfAbsent( actualModule, key -> new FqnCache<>() );
-    fqnPsiCache.add( fqn, psiFacadeClass );
-    if( psiFacadeClass.getContainingClass() == null ) // associate only top-level class with file
+    nest.put( fqn, psiFacadeClass );
+    for( PsiClass inner: delegate.getInnerClasses() )
+    {
+      makeFacades( inner, actualModule, tm, issues, nest );
+    }
+    return psiFacadeClass;
+  }
+
+  /**
+   * Cache a top-level type and its nest of inner classes and track them for eviction, see {@link #cacheAll}.
+   *
+   * @return True if the types were cached
+   */
+  private boolean cacheAndTrack( ManifoldPsiClass topLevel, Map<String, ManifoldPsiClass> nest, int generation,
+                                 String source )
+  {
+    TypeCacheEvictionPolicy.Entry entry = TypeCacheEvictionPolicy.newEntry( topLevel.getManModule(),
+      topLevel.getQualifiedName(), TypeCacheEvictionPolicy.estimateSize( source ), getFilePaths( topLevel ) );
+    for( ManifoldPsiClass facade: nest.values() )
+    {
+      // a hit on any class of the nest touches the entry directly
+      facade.putUserData( TypeCacheEvictionPolicy.KEY_ENTRY, entry );
+    }
+    if( !cacheAll( topLevel, nest, generation ) )
     {
-      for( IFile file : files )
+      return false;
+    }
+    evict( _evictionPolicy.added( entry ) );
+    return true;
+  }
+
+  /**
+   * Cache a top-level type and its nest of inner classes in place of whatever is cached under its name e.g., a
+   * placeholder or misses. Nothing is cached if the type was refreshed since {@code generation} was taken, the type
+   * is stale.
+   *
+   * @return True if the types were cached
+   */
+  private boolean cacheAll( ManifoldPsiClass topLevel, Map<String, ManifoldPsiClass> nest, int generation )
+  {
+    FqnCache<ManifoldPsiClass> fqnPsiCache = getFqnCache( topLevel.getManModule() );
+    return _generations.publish( topLevel.getQualifiedName(), generation, () -> {
+      synchronized( fqnPsiCache )
+      {
+        fqnPsiCache.remove( topLevel.getQualifiedName() );
+        for( Map.Entry<String, ManifoldPsiClass> entry: nest.entrySet() )
+        {
+          fqnPsiCache.add( entry.getKey(), entry.getValue() );
+        }
+      }
+      // associate only top-level class with file
+      for( IFile file: topLevel.getFiles() )
       {
-        _filePathToPsi.put( file.getPath().getPathString(), psiFacadeClass );
+        _filePathToPsi.put( file.getPath().getPathString(), topLevel );
       }
+    } );
+  }
+
+  /**
+   * Remove evicted types from the cache, they are rebuilt transparently on their next lookup.
+   */
+  private void evict( List<TypeCacheEvictionPolicy.Entry> evicted )
+  {
+    if( evicted == null )
+    {
+      return;
     }
-    for( PsiClass inner: delegate.getInnerClasses() )
+
+    for( TypeCacheEvictionPolicy.Entry entry: evicted )
     {
-      cacheAll( inner, actualModule, tm, issues );
+      FqnCache<ManifoldPsiClass> fqnPsiCache = _fqnPsiCachePerModule.get( entry.getModule() );
+      if( fqnPsiCache != null )
+      {
+        synchronized( fqnPsiCache )
+        {
+          fqnPsiCache.remove( entry.getFqn() );
+        }
+      }
+      if( entry.getFilePaths() != null )
+      {
+        for( String path: entry.getFilePaths() )
+        {
+          _filePathToPsi.remove( path );
+        }
+      }
     }
   }
 
+  /**
+   * @return The number of lookups answered from the cache
+   */
+  public long getCacheHitCount()
+  {
+    return _evictionPolicy.getHitCount();
+  }
+
+  /**
+   * @return The number of lookups that had to create a type or record a miss
+   */
+  public long getCacheMissCount()
+  {
+    return _evictionPolicy.getMissCount();
+  }
+
+  /**
+   * @return The number of types evicted to stay within the configured memory budget
+   */
+  public long getCacheEvictionCount()
+  {
+    return _evictionPolicy.getEvictionCount();
+  }
+
+  /**
+   * @return The estimated memory, in bytes, retained by the cache
+   */
+  public long getCacheSizeEstimate()
+  {
+    return _evictionPolicy.getSizeEstimate();
+  }
+
   private void listenToChanges( ManProject project )
   {
     Project ijProject = project.getNativeProject();
@@ -409,7 +974,46 @@ public class ManifoldPsiClassCache extends AbstractTypeSystemListener
   }
 
   @Override
-  public synchronized void refreshedTypes( RefreshRequest request )
+  public void refreshedTypes( RefreshRequest request )
+  {
+    refreshedTypes( new BulkRefreshRequest( request.module, request.kind, Collections.singletonList( request ) ) );
+  }
+
+  @Override
+  public void refreshedTypes( BulkRefreshRequest request )
+  {
+    if( _concurrent )
+    {
+      refreshedTypes_Unsynchronized( request );
+      return;
+    }
+
+    synchronized( this )
+    {
+      refreshedTypes_Unsynchronized( request );
+    }
+  }
+
+  private void refreshedTypes_Unsynchronized( BulkRefreshRequest bulkRequest )
+  {
+    _sourceCache.invalidateDependencyKeys();
+    PsiClass removedFacade = null;
+    for( RefreshRequest request: bulkRequest.requests )
+    {
+      PsiClass facade = removeRefreshedTypes( request );
+      removedFacade = facade == null ? removedFacade : facade;
+    }
+    if( removedFacade != null )
+    {
+      // one modification count increment for the whole batch
+      incModificationCount( removedFacade );
+    }
+  }
+
+  /**
+   * @return The top-level facade removed for the request's file, if any
+   */
+  private PsiClass removeRefreshedTypes( RefreshRequest request )
   {
     if( !(request.module instanceof ManModule) )
     {
@@ -417,58 +1021,96 @@ public class ManifoldPsiClassCache extends AbstractTypeSystemListener
     }
 
     ManModule module = (ManModule)request.module;
-    FqnCache<ManifoldPsiClass> fqnPsiCache = _fqnPsiCachePerModule.computeIfAbsent( module, key -> new FqnCache<>() );
+    FqnCache<ManifoldPsiClass> fqnPsiCache = getFqnCache( module );
     for( String type : request.types )
     {
-      //removeDependentTypes( type, map, module );
-      fqnPsiCache.remove( type );
+      // keeps a type created concurrently from reading the old version and caching it after the removal
+      _generations.refreshed( type );
+      _pendingAsyncTypes.remove( asyncKey( module, type ) );
+      _failedAsyncTypes.remove( asyncKey( module, type ) );
+    }
+    synchronized( fqnPsiCache )
+    {
+      for( String type : request.types )
+      {
+        //removeDependentTypes( type, map, module );
+        fqnPsiCache.remove( type );
+        _evictionPolicy.removed( module, type );
+      }
     }
     if( request.file != null )
     {
       String pathString = request.file.getPath().getPathString();
-      if( _filePathToPsi.containsKey( pathString ) )
+      PsiClass facade = _filePathToPsi.get( pathString );
+      if( facade != null )
       {
-        PsiClass facade = _filePathToPsi.get( pathString );
-        if( removeFromCache( module, module, facade ) )
+        _generations.refreshed( facade.getQualifiedName() );
+        if( removeFromCache( module, facade ) )
         {
           _filePathToPsi.remove( pathString );
-          ApplicationManager.getApplication().invokeLater( () ->
-            ApplicationManager.getApplication().runWriteAction( () ->
-              ((PsiModificationTrackerImpl)facade.getManager().getModificationTracker()).incCounter() ) );
+          return facade;
         }
       }
     }
+    return null;
   }
 
-  public boolean removeFromCache( ManModule module, ManModule start, PsiClass removedFacade )
+  private static void incModificationCount( PsiClass facade )
   {
-    FqnCache<ManifoldPsiClass> fqnPsiCache =
-      _fqnPsiCachePerModule.computeIfAbsent( module, key -> new FqnCache<>() );
-
-    if( fqnPsiCache.remove( removedFacade.getQualifiedName() ) )
-    {
-      return true;
-    }
+    ApplicationManager.getApplication().invokeLater( () ->
+      ApplicationManager.getApplication().runWriteAction( () ->
+        ((PsiModificationTrackerImpl)facade.getManager().getModificationTracker()).incCounter() ) );
+  }
 
-    for( Dependency d: module.getDependencies() )
+  public boolean removeFromCache( ManModule module, PsiClass removedFacade )
+  {
+    for( ManModule visible: module.getVisibleModules() )
     {
-      if( module == start || d.isExported() )
+      FqnCache<ManifoldPsiClass> fqnPsiCache = _fqnPsiCachePerModule.get( visible );
+      if( fqnPsiCache == null )
       {
-        if( removeFromCache( (ManModule) d.getModule(), start, removedFacade ) )
+        continue;
+      }
+      synchronized( fqnPsiCache )
+      {
+        if( fqnPsiCache.remove( removedFacade.getQualifiedName() ) )
         {
           return true;
         }
       }
     }
-
     return false;
   }
 
   @Override
   public void refreshed()
   {
-    _filePathToPsi = new ConcurrentHashMap<>();
+    _generations.refreshedAll();
+    _sourceCache.invalidateDependencyKeys();
+    _filePathToPsi.clear();
     _fqnPsiCachePerModule.clear();
+    _evictionPolicy.clear();
+    _pendingAsyncTypes.clear();
+    _failedAsyncTypes.clear();
+  }
+
+  @Override
+  public void modulesReplaced( Set<ManModule> modules )
+  {
+    // types of the old modules created concurrently must not be cached
+    _generations.refreshedAll();
+    _sourceCache.invalidateDependencyKeys();
+    for( ManModule module: modules )
+    {
+      _fqnPsiCachePerModule.remove( module );
+      _evictionPolicy.removed( module );
+      // the replacement module has the same name, its types start over
+      String prefix = module.getName() + ':';
+      _pendingAsyncTypes.keySet().removeIf( key -> key.startsWith( prefix ) );
+      _failedAsyncTypes.removeIf( key -> key.startsWith( prefix ) );
+    }
+    _filePathToPsi.values().removeIf(
+      psiClass -> psiClass instanceof ManifoldPsiClass && modules.contains( ((ManifoldPsiClass)psiClass).getManModule() ) );
   }
 
   private class PsiTreeChangeHandler extends PsiTreeChangeAdapter
@@ -490,6 +1132,14 @@ public class ManifoldPsiClassCache extends AbstractTypeSystemListener
 //           || propertyName.equals( PsiTreeChangeEvent.PROP_UNLOADED_PSI )
            || propertyName.equals( PsiTreeChangeEvent.PROP_ROOTS )) )
       {
+        if( PsiTreeChangeEvent.PROP_ROOTS.equals( propertyName ) )
+        {
+          // a roots change, ManProject#update() drops only the modules it rebuilds, see modulesReplaced(). Whether the
+          // PSI manager reports it before or after the module root listeners run, the update finds the modules that
+          // changed, if the listeners already updated them there are none.
+          _project.update();
+          return;
+        }
         refreshed();
       }
     }
@@ -49,6 +49,6 @@ public class ModuleClasspathListener implements ModuleRootListener
       return;
     }
 
-    ManProject.manProjectFrom( project ).reset();
+    ManProject.manProjectFrom( project ).update();
   }
 }
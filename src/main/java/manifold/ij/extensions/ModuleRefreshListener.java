@@ -36,22 +36,22 @@ public class ModuleRefreshListener implements ModuleListener
 {
   public void moduleAdded( Project project, Module ijModule )
   {
-    ManProject.manProjectFrom( project ).reset();
+    ManProject.manProjectFrom( project ).update();
   }
 
   public void beforeModuleRemoved( Project project, Module ijModule )
   {
-    ManProject.manProjectFrom( project ).reset();
+    ManProject.manProjectFrom( project ).update();
   }
 
   public void moduleRemoved( Project project, Module module )
   {
-    ManProject.manProjectFrom( project ).reset();
+    ManProject.manProjectFrom( project ).update();
   }
 
   @Override
   public void modulesRenamed( Project project, @NotNull List<? extends Module> modules, @NotNull Function<? super Module, String> moduleStringFunction )
   {
-    ManProject.manProjectFrom( project ).reset();
+    ManProject.manProjectFrom( project ).update();
   }
 }
@@ -0,0 +1,263 @@
+/*
+ *
+ *  * Copyright (c) 2022 - Manifold Systems LLC
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *       http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ *
+ */
+
+/*
+ * Manifold
+ */
+
+package manifold.ij.extensions;
+
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.util.Key;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import manifold.ij.core.ManModule;
+
+/**
+ * Bounds the memory retained by {@link ManifoldPsiClassCache}. Each cached top-level type (with its nest of inner
+ * classes) and each cached miss is tracked with an estimate of its size. When the total exceeds the configured budget
+ * the least recently used entries are evicted. An evicted type is simply rebuilt on its next lookup.
+ * <p/>
+ * The budget is the {@link #MANIFOLD_TYPE_CACHE_MAX_MB} property, in megabytes; zero (the default) means unbounded.
+ * It is set in the Manifold settings page.
+ * <p/>
+ * An entry is attached to the facades of its type as user data, see {@link #KEY_ENTRY}, so that a cache hit updates
+ * it directly.
+ */
+class TypeCacheEvictionPolicy
+{
+  static final String MANIFOLD_TYPE_CACHE_MAX_MB = "manifold.type.cache.max.mb";
+  static final Key<Entry> KEY_ENTRY = new Key<>( "TypeCacheEntry" );
+
+  // rough light PSI bytes per character of generated source
+  private static final int PSI_BYTES_PER_CHAR = 16;
+  private static final int MISS_SIZE = 64;
+  // evict down to this fraction of the budget to avoid evicting on every new type
+  private static final double EVICT_TO = 0.9;
+
+  private final Map<Entry, Entry> _entries;
+  private final AtomicLong _totalSize;
+  private final AtomicLong _clock;
+  private final AtomicLong _hits;
+  private final AtomicLong _misses;
+  private final AtomicLong _evictions;
+
+  TypeCacheEvictionPolicy()
+  {
+    _entries = new ConcurrentHashMap<>();
+    _totalSize = new AtomicLong();
+    _clock = new AtomicLong();
+    _hits = new AtomicLong();
+    _misses = new AtomicLong();
+    _evictions = new AtomicLong();
+  }
+
+  static long getMaxSize()
+  {
+    return getMaxSizeMb() * 1024 * 1024;
+  }
+
+  static long getMaxSizeMb()
+  {
+    return PropertiesComponent.getInstance().getLong( MANIFOLD_TYPE_CACHE_MAX_MB, 0 );
+  }
+  static void setMaxSizeMb( long maxSizeMb )
+  {
+    PropertiesComponent.getInstance().setValue( MANIFOLD_TYPE_CACHE_MAX_MB, String.valueOf( maxSizeMb ), "0" );
+  }
+
+  static long estimateSize( CharSequence generatedSource )
+  {
+    return (long)generatedSource.length() * PSI_BYTES_PER_CHAR;
+  }
+
+  /**
+   * @param entry The entry attached to the facade found in the cache, see {@link #KEY_ENTRY}. Null if the facade has
+   *              none, which is counted but not tracked.
+   */
+  void hit( Entry entry )
+  {
+    _hits.incrementAndGet();
+    if( entry != null )
+    {
+      entry._lastAccess = _clock.incrementAndGet();
+    }
+  }
+
+  /**
+   * Count a lookup the cache could not answer. Counted once per lookup, regardless of how many entries are added to
+   * answer it e.g., a placeholder and the type replacing it.
+   */
+  void missed()
+  {
+    _misses.incrementAndGet();
+  }
+
+  /**
+   * @param filePaths The paths of the files associated with the type, null if the entry is a cached miss
+   */
+  static Entry newEntry( ManModule module, String topLevelFqn, long size, List<String> filePaths )
+  {
+    return new Entry( module, topLevelFqn, filePaths == null ? MISS_SIZE : size, filePaths );
+  }
+
+  /**
+   * Track a newly cached type or miss, replacing the entry of the same name.
+   *
+   * @return Entries that should be evicted, if any
+   */
+  List<Entry> added( Entry entry )
+  {
+    entry._lastAccess = _clock.incrementAndGet();
+    Entry prior = _entries.put( entry, entry );
+    _totalSize.addAndGet( entry._size - (prior == null ? 0 : prior._size) );
+
+    long maxSize = getMaxSize();
+    if( maxSize <= 0 || _totalSize.get() <= maxSize )
+    {
+      return null;
+    }
+    return selectEvictions( (long)(maxSize * EVICT_TO), entry );
+  }
+
+  private synchronized List<Entry> selectEvictions( long targetSize, Entry keep )
+  {
+    List<Entry> candidates = new ArrayList<>( _entries.values() );
+    candidates.sort( Comparator.comparingLong( e -> e._lastAccess ) );
+    List<Entry> evicted = new ArrayList<>();
+    for( Entry candidate: candidates )
+    {
+      if( _totalSize.get() <= targetSize )
+      {
+        break;
+      }
+      if( candidate != keep && _entries.remove( candidate, candidate ) )
+      {
+        _totalSize.addAndGet( -candidate._size );
+        _evictions.incrementAndGet();
+        evicted.add( candidate );
+      }
+    }
+    return evicted;
+  }
+
+  void removed( ManModule module, String topLevelFqn )
+  {
+    Entry removed = _entries.remove( new Entry( module, topLevelFqn, 0, null ) );
+    if( removed != null )
+    {
+      _totalSize.addAndGet( -removed._size );
+    }
+  }
+
+  void removed( ManModule module )
+  {
+    for( Entry entry: _entries.values() )
+    {
+      if( entry._module == module && _entries.remove( entry, entry ) )
+      {
+        _totalSize.addAndGet( -entry._size );
+      }
+    }
+  }
+
+  void clear()
+  {
+    _entries.clear();
+    _totalSize.set( 0 );
+  }
+
+  long getHitCount()
+  {
+    return _hits.get();
+  }
+
+  long getMissCount()
+  {
+    return _misses.get();
+  }
+
+  long getEvictionCount()
+  {
+    return _evictions.get();
+  }
+
+  long getSizeEstimate()
+  {
+    return _totalSize.get();
+  }
+
+  static class Entry
+  {
+    private final ManModule _module;
+    private final String _fqn;
+    private final long _size;
+    private final List<String> _filePaths;
+    private volatile long _lastAccess;
+
+    private Entry( ManModule module, String fqn, long size, List<String> filePaths )
+    {
+      _module = module;
+      _fqn = fqn;
+      _size = size;
+      _filePaths = filePaths;
+    }
+
+    ManModule getModule()
+    {
+      return _module;
+    }
+
+    String getFqn()
+    {
+      return _fqn;
+    }
+
+    List<String> getFilePaths()
+    {
+      return _filePaths;
+    }
+
+    @Override
+    public boolean equals( Object o )
+    {
+      if( this == o )
+      {
+        return true;
+      }
+      if( !(o instanceof Entry) )
+      {
+        return false;
+      }
+      Entry entry = (Entry)o;
+      return _module == entry._module && _fqn.equals( entry._fqn );
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return Objects.hash( System.identityHashCode( _module ), _fqn );
+    }
+  }
+}
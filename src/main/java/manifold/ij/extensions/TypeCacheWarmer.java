@@ -0,0 +1,232 @@
+/*
+ *
+ *  * Copyright (c) 2022 - Manifold Systems LLC
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *       http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ *
+ */
+
+/*
+ * Manifold
+ */
+
+package manifold.ij.extensions;
+
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import manifold.api.type.ITypeManifold;
+import manifold.ij.core.ManModule;
+import manifold.ij.core.ManProject;
+import manifold.util.concurrent.LocklessLazyVar;
+import org.jetbrains.annotations.NotNull;
+
+import static manifold.api.type.ContributorKind.Partial;
+import static manifold.api.type.ContributorKind.Primary;
+
+/**
+ * Optionally creates the types of Primary and Partial type manifolds in the background after a project opens so that
+ * the first lookups in the editor don't pay for type generation. The work waits for smart mode, is cancellable from the
+ * status bar, yields to write actions, and stops warming a module once its generated types exceed
+ * {@link #MANIFOLD_TYPE_WARMUP_MAX_MB} megabytes. Modules are warmed in parallel only if the project's cache creates
+ * types concurrently, see {@link ManifoldPsiClassCache#isConcurrent()}.
+ */
+public class TypeCacheWarmer
+{
+  private static final Logger LOG = Logger.getInstance( TypeCacheWarmer.class );
+
+  private static final String MANIFOLD_TYPE_WARMUP = "manifold.type.warmup";
+  private static final LocklessLazyVar<boolean[]> TYPE_WARMUP = LocklessLazyVar.make( () ->
+    new boolean[] {PropertiesComponent.getInstance().getBoolean( MANIFOLD_TYPE_WARMUP )} );
+  static final String MANIFOLD_TYPE_WARMUP_MAX_MB = "manifold.type.warmup.max.mb";
+
+  static boolean isEnabled()
+  {
+    return TYPE_WARMUP.get()[0];
+  }
+  static void setEnabled( boolean enabled )
+  {
+    TYPE_WARMUP.get()[0] = enabled;
+    PropertiesComponent.getInstance().setValue( MANIFOLD_TYPE_WARMUP, enabled );
+  }
+
+  public static void warmUp( Project project )
+  {
+    if( !isEnabled() || project.isDisposed() || !ManProject.isManifoldInUse( project ) )
+    {
+      return;
+    }
+
+    DumbService.getInstance( project ).runWhenSmart( () ->
+      ProgressManager.getInstance().run( new Task.Backgroundable( project, "Preparing manifold types", true )
+      {
+        @Override
+        public void run( @NotNull ProgressIndicator indicator )
+        {
+          new TypeCacheWarmer( project, indicator ).run();
+        }
+      } ) );
+  }
+
+  private final Project _project;
+  private final ProgressIndicator _indicator;
+  private final long _maxModuleSize;
+  private final AtomicInteger _done;
+  private int _total;
+
+  private TypeCacheWarmer( Project project, ProgressIndicator indicator )
+  {
+    _project = project;
+    _indicator = indicator;
+    _maxModuleSize = PropertiesComponent.getInstance().getLong( MANIFOLD_TYPE_WARMUP_MAX_MB, 64 ) * 1024 * 1024;
+    _done = new AtomicInteger();
+  }
+
+  private void run()
+  {
+    _indicator.setIndeterminate( false );
+
+    List<ManModule> modules = new ArrayList<>();
+    List<Set<String>> namesPerModule = new ArrayList<>();
+    ReadAction.run( () -> {
+      for( ManModule module: ManProject.manProjectFrom( _project ).getModules().values() )
+      {
+        Set<String> names = new LinkedHashSet<>();
+        for( ITypeManifold tm: module.getTypeManifolds() )
+        {
+          if( tm.getContributorKind() == Primary || tm.getContributorKind() == Partial )
+          {
+            names.addAll( tm.getAllTypeNames() );
+          }
+        }
+        if( !names.isEmpty() )
+        {
+          modules.add( module );
+          namesPerModule.add( names );
+          _total += names.size();
+        }
+      }
+    } );
+    if( modules.isEmpty() )
+    {
+      return;
+    }
+
+    long start = System.nanoTime();
+    // lookups are serialized unless the cache creates types concurrently, more threads would only queue up on the
+    // cache's monitor along with the editor's lookups
+    int parallelism = ManProject.manProjectFrom( _project ).getPsiClassCache().isConcurrent()
+                      ? Math.max( 1, Math.min( modules.size(), Runtime.getRuntime().availableProcessors() / 2 ) )
+                      : 1;
+    ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor( "Manifold Type Warm-up", parallelism );
+    try
+    {
+      List<Future<?>> futures = new ArrayList<>();
+      for( int i = 0; i < modules.size(); i++ )
+      {
+        ManModule module = modules.get( i );
+        Collection<String> names = namesPerModule.get( i );
+        futures.add( executor.submit( () -> warmModule( module, names ) ) );
+      }
+      for( Future<?> future: futures )
+      {
+        future.get();
+      }
+    }
+    catch( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+    }
+    catch( ExecutionException e )
+    {
+      if( !(e.getCause() instanceof ProcessCanceledException) )
+      {
+        LOG.warn( "Manifold type warm-up failed", e.getCause() );
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+    LOG.info( "Manifold type warm-up: " + _done.get() + " of " + _total + " types in " +
+              (System.nanoTime() - start) / 1_000_000 + "ms" );
+  }
+
+  private void warmModule( ManModule module, Collection<String> names )
+  {
+    long size = 0;
+    for( String fqn: names )
+    {
+      if( _project.isDisposed() )
+      {
+        return;
+      }
+      _indicator.checkCanceled();
+
+      if( size > _maxModuleSize )
+      {
+        LOG.info( "Manifold type warm-up stopped at the memory cap for module: " + module.getName() );
+        return;
+      }
+
+      long[] typeSize = {0};
+      // a write action cancels the read action, wait for it to finish (and for smart mode) and try again
+      while( !ProgressIndicatorUtils.runInReadActionWithWriteActionPriority( () -> {
+        if( !DumbService.getInstance( _project ).isDumb() )
+        {
+          typeSize[0] = estimateSize( ManifoldPsiClassCache.getPsiClass( module, fqn ) );
+        }
+      }, _indicator ) || DumbService.getInstance( _project ).isDumb() )
+      {
+        _indicator.checkCanceled();
+        if( _project.isDisposed() )
+        {
+          return;
+        }
+        DumbService.getInstance( _project ).waitForSmartMode();
+        ProgressIndicatorUtils.yieldToPendingWriteActions();
+      }
+      size += typeSize[0];
+
+      int done = _done.incrementAndGet();
+      _indicator.setFraction( (double)done / _total );
+      _indicator.setText2( fqn );
+    }
+  }
+
+  private static long estimateSize( PsiClass psiClass )
+  {
+    PsiFile file = psiClass == null ? null : psiClass.getContainingFile();
+    return file == null ? 0 : TypeCacheEvictionPolicy.estimateSize( file.getViewProvider().getContents() );
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ *
+ *  * Copyright (c) 2022 - Manifold Systems LLC
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *       http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ *
+ */
+
+/*
+ * Manifold
+ */
+
+package manifold.ij.extensions;
+
+/**
+ * Generation stamps that keep a type created concurrently with a refresh of the same type out of the cache. A creator
+ * takes a stamp before it reads the type's resources and publishes the type only if the stamp is unchanged, a refresh
+ * bumps the stamp before it removes the type from the cache. Either the refresh removes the published type or the
+ * stale type is never published.
+ * <p/>
+ * Stamps are striped by top-level FQN. A miss is not associated with a top-level type, it is checked against a stamp
+ * bumped by every refresh.
+ */
+class TypeGenerations
+{
+  private final int[] _stripes;
+  private int _any;
+
+  TypeGenerations( int stripes )
+  {
+    _stripes = new int[stripes];
+  }
+
+  synchronized int get( String topLevelFqn )
+  {
+    return _stripes[stripe( topLevelFqn )];
+  }
+
+  synchronized int getAny()
+  {
+    return _any;
+  }
+
+  /**
+   * Call before removing {@code topLevelFqn} from the cache.
+   */
+  synchronized void refreshed( String topLevelFqn )
+  {
+    _stripes[stripe( topLevelFqn )]++;
+    _any++;
+  }
+
+  /**
+   * Call before clearing the cache.
+   */
+  synchronized void refreshedAll()
+  {
+    for( int i = 0; i < _stripes.length; i++ )
+    {
+      _stripes[i]++;
+    }
+    _any++;
+  }
+
+  /**
+   * Run {@code publisher} if {@code topLevelFqn} was not refreshed since {@code generation} was taken.
+   *
+   * @return True if {@code publisher} ran
+   */
+  synchronized boolean publish( String topLevelFqn, int generation, Runnable publisher )
+  {
+    if( _stripes[stripe( topLevelFqn )] != generation )
+    {
+      return false;
+    }
+    publisher.run();
+    return true;
+  }
+
+  /**
+   * Run {@code publisher} if nothing was refreshed since {@code generation} was taken.
+   *
+   * @return True if {@code publisher} ran
+   */
+  synchronized boolean publishAny( int generation, Runnable publisher )
+  {
+    if( _any != generation )
+    {
+      return false;
+    }
+    publisher.run();
+    return true;
+  }
+
+  private int stripe( String topLevelFqn )
+  {
+    return (topLevelFqn.hashCode() & 0x7fffffff) % _stripes.length;
+  }
+}
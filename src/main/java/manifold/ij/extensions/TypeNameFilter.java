@@ -0,0 +1,254 @@
+/*
+ *
+ *  * Copyright (c) 2022 - Manifold Systems LLC
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *       http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ *
+ */
+
+/*
+ * Manifold
+ */
+
+package manifold.ij.extensions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import manifold.api.host.AbstractTypeSystemListener;
+import manifold.api.host.RefreshKind;
+import manifold.api.host.RefreshRequest;
+import manifold.api.type.ITypeManifold;
+import manifold.api.type.ResourceFileTypeManifold;
+import manifold.ij.core.ManModule;
+import manifold.ij.core.ManProject;
+
+import static manifold.api.type.ContributorKind.Partial;
+import static manifold.api.type.ContributorKind.Primary;
+
+/**
+ * A per-project bloom filter of the top-level names provided by Primary and Partial type manifolds. Answers whether an
+ * FQN could possibly be a manifold type, either a top-level type or a type nested in one, so that the vast majority of
+ * names IntelliJ asks about (JDK, libraries, project classes) are rejected without a module walk.
+ * <p/>
+ * A miss is trusted only if the filter was built from complete enumerations. Resource file type manifolds enumerate
+ * their types from the module's files, if any other Primary or Partial type manifold is in use the filter lets every
+ * name through. A filter built while a refresh was in flight is not trusted either, names fall through until it is
+ * rebuilt.
+ * <p/>
+ * False positives only cost a regular lookup. The filter is patched as types are created and rebuilt lazily after a
+ * full refresh, or when patches have filled it past its capacity. Note a deleted type's bits remain set until then,
+ * which is harmless.
+ */
+class TypeNameFilter extends AbstractTypeSystemListener
+{
+  private static final int BITS_PER_NAME = 10;
+  private static final int MIN_NAMES = 1 << 9;
+  private static final int HASHES = 4;
+
+  // lets every name through, used when a type manifold's enumeration of its types may be incomplete
+  private static final Bloom PASS_ALL = new Bloom( 0 );
+
+  private volatile Bloom _bloom;
+  private volatile ManRefreshListener _listeningTo;
+  // changes on every refresh, a filter built concurrently with a refresh may be stale and is not trusted
+  private int _stamp;
+
+  /**
+   * @return False if {@code fqn} cannot be a manifold type, otherwise true
+   */
+  boolean mightBeType( ManProject manProject, String fqn )
+  {
+    Bloom bloom = getBloom( manProject );
+    return bloom == null || bloom == PASS_ALL || bloom.mightContainTypeOrEnclosing( fqn );
+  }
+
+  /**
+   * @return The filter, or null if a refresh landed while it was built
+   */
+  private Bloom getBloom( ManProject manProject )
+  {
+    Bloom bloom = _bloom;
+    if( bloom == null )
+    {
+      listenToChanges( manProject );
+      int stamp;
+      synchronized( this )
+      {
+        stamp = _stamp;
+      }
+      bloom = build( manProject );
+      synchronized( this )
+      {
+        if( stamp != _stamp )
+        {
+          return null;
+        }
+        _bloom = bloom;
+      }
+    }
+    return bloom;
+  }
+
+  private void listenToChanges( ManProject manProject )
+  {
+    ManRefreshListener refresher = manProject.getFileModificationManager().getManRefresher();
+    if( _listeningTo != refresher )
+    {
+      _listeningTo = refresher;
+      refresher.addTypeSystemListenerAsWeakRef( this );
+    }
+  }
+
+  private static Bloom build( ManProject manProject )
+  {
+    List<String> names = new ArrayList<>();
+    for( ManModule module: manProject.getModules().values() )
+    {
+      for( ITypeManifold tm: module.getTypeManifolds() )
+      {
+        if( tm.getContributorKind() == Primary || tm.getContributorKind() == Partial )
+        {
+          if( !(tm instanceof ResourceFileTypeManifold) )
+          {
+            return PASS_ALL;
+          }
+          names.addAll( tm.getAllTypeNames() );
+        }
+      }
+    }
+
+    Bloom bloom = new Bloom( names.size() );
+    for( String name: names )
+    {
+      bloom.add( name );
+    }
+    return bloom;
+  }
+
+  @Override
+  public synchronized void refreshedTypes( RefreshRequest request )
+  {
+    _stamp++;
+    Bloom bloom = _bloom;
+    if( bloom == null || bloom == PASS_ALL || request.kind == RefreshKind.DELETION )
+    {
+      return;
+    }
+
+    for( String fqn: request.types )
+    {
+      bloom.add( fqn );
+    }
+    if( bloom.isOverfull() )
+    {
+      // rebuilt with room for the current names on the next lookup
+      _bloom = null;
+    }
+  }
+
+  @Override
+  public synchronized void refreshed()
+  {
+    _stamp++;
+    _bloom = null;
+  }
+
+  /**
+   * Bloom filter over top-level type names, sized for twice the names it is built with to leave room for types added
+   * later.
+   */
+  static class Bloom
+  {
+    private final AtomicLongArray _bits;
+    private final int _capacity;
+    private final AtomicInteger _count;
+
+    Bloom( int names )
+    {
+      _capacity = Math.max( MIN_NAMES, names * 2 );
+      _bits = new AtomicLongArray( (int)(((long)_capacity * BITS_PER_NAME + 63) / 64) );
+      _count = new AtomicInteger();
+    }
+
+    void add( String name )
+    {
+      add( name.hashCode() );
+      _count.incrementAndGet();
+    }
+
+    /**
+     * @return True if more names were added than the filter was sized for, its false positive rate is rising
+     */
+    boolean isOverfull()
+    {
+      return _count.get() > _capacity;
+    }
+
+    /**
+     * @return False if neither {@code fqn} nor any of its enclosing names was added, otherwise true
+     */
+    boolean mightContainTypeOrEnclosing( String fqn )
+    {
+      // the running hash equals String#hashCode() of each prefix, test the prefixes ending before a '.' and the full name
+      int hash = 0;
+      for( int i = 0; i < fqn.length(); i++ )
+      {
+        char c = fqn.charAt( i );
+        if( c == '.' && contains( hash ) )
+        {
+          return true;
+        }
+        hash = 31 * hash + c;
+      }
+      return contains( hash );
+    }
+
+    private void add( int hash )
+    {
+      long bitCount = _bits.length() * 64L;
+      int h2 = spread( hash );
+      for( int i = 0; i < HASHES; i++ )
+      {
+        long index = ((hash + (long)i * h2) & 0x7fffffffL) % bitCount;
+        int word = (int)(index >>> 6);
+        long mask = 1L << (index & 63);
+        long value;
+        while( ((value = _bits.get( word )) & mask) == 0 && !_bits.compareAndSet( word, value, value | mask ) );
+      }
+    }
+
+    private boolean contains( int hash )
+    {
+      long bitCount = _bits.length() * 64L;
+      int h2 = spread( hash );
+      for( int i = 0; i < HASHES; i++ )
+      {
+        long index = ((hash + (long)i * h2) & 0x7fffffffL) % bitCount;
+        if( (_bits.get( (int)(index >>> 6) ) & (1L << (index & 63))) == 0 )
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static int spread( int hash )
+    {
+      hash *= 0x9E3779B9;
+      return (hash ^ (hash >>> 16)) | 1;
+    }
+  }
+}
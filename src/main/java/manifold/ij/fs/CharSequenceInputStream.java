@@ -0,0 +1,114 @@
+/*
+ *
+ *  * Copyright (c) 2022 - Manifold Systems LLC
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *       http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ *
+ */
+
+/*
+ * Manifold
+ */
+
+package manifold.ij.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Streams the bytes of a {@link CharSequence} in a charset, encoding a buffer at a time instead of materializing the
+ * whole content as a String and then a byte array.
+ */
+class CharSequenceInputStream extends InputStream
+{
+  private static final int BUFFER_SIZE = 8192;
+
+  private final CharsetEncoder _encoder;
+  private final CharBuffer _chars;
+  private final ByteBuffer _bytes;
+  private boolean _encoded;
+  private boolean _flushed;
+
+  CharSequenceInputStream( CharSequence content, Charset charset )
+  {
+    _encoder = charset.newEncoder()
+      .onMalformedInput( CodingErrorAction.REPLACE )
+      .onUnmappableCharacter( CodingErrorAction.REPLACE );
+    _chars = CharBuffer.wrap( content );
+    _bytes = ByteBuffer.allocate( BUFFER_SIZE );
+    _bytes.flip();
+  }
+
+  @Override
+  public int read() throws IOException
+  {
+    if( !_bytes.hasRemaining() && !fill() )
+    {
+      return -1;
+    }
+    return _bytes.get() & 0xFF;
+  }
+
+  @Override
+  public int read( byte[] b, int off, int len ) throws IOException
+  {
+    if( len == 0 )
+    {
+      return 0;
+    }
+    if( !_bytes.hasRemaining() && !fill() )
+    {
+      return -1;
+    }
+    int count = Math.min( len, _bytes.remaining() );
+    _bytes.get( b, off, count );
+    return count;
+  }
+
+  @Override
+  public int available()
+  {
+    return _bytes.remaining();
+  }
+
+  private boolean fill() throws IOException
+  {
+    _bytes.clear();
+    while( _bytes.position() == 0 && !_flushed )
+    {
+      // all the input is available up front, so every encode call is at the end of input
+      CoderResult result = _encoded ? _encoder.flush( _bytes ) : _encoder.encode( _chars, _bytes, true );
+      if( result.isError() )
+      {
+        result.throwException();
+      }
+      if( result.isUnderflow() )
+      {
+        if( _encoded )
+        {
+          _flushed = true;
+        }
+        _encoded = true;
+      }
+    }
+    _bytes.flip();
+    return _bytes.hasRemaining();
+  }
+}
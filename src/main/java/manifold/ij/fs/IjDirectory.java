@@ -84,7 +84,7 @@ public class IjDirectory extends IjResource implements IDirectory
       {
         if( child.isDirectory() )
         {
-          result.add( new IjDirectory( getFileSystem(), child ) );
+          result.add( getFileSystem().getIDirectory( child ) );
         }
       }
     }
@@ -101,7 +101,7 @@ public class IjDirectory extends IjResource implements IDirectory
       {
         if( !child.isDirectory() )
         {
-          result.add( new IjFile( getFileSystem(), child ) );
+          result.add( getFileSystem().internFile( child ) );
         }
       }
     }
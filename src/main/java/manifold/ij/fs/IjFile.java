@@ -24,12 +24,10 @@
 package manifold.ij.fs;
 
 import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.application.ex.ApplicationManagerEx;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.util.io.FileUtilRt;
 import com.intellij.openapi.vfs.VirtualFile;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -64,10 +62,10 @@ public class IjFile extends IjResource implements IFile
   @Override
   public InputStream openInputStream() throws IOException
   {
-    String temporaryBuffer = getTemporaryBuffer( this );
-    if( temporaryBuffer != null )
+    CharSequence content = getDocumentContent();
+    if( content != null )
     {
-      return new ByteArrayInputStream( temporaryBuffer.getBytes( charset ) );
+      return new CharSequenceInputStream( content, charset );
     }
     else
     {
@@ -75,29 +73,37 @@ public class IjFile extends IjResource implements IFile
     }
   }
 
-  private String getTemporaryBuffer( IjFile file )
+  /**
+   * @return The content of this file, the content of the file's open document if it has one. Avoids copying the
+   * document text, prefer this over reading {@link #openInputStream()} when the text is needed.
+   */
+  public CharSequence getCharSequence() throws IOException
   {
-    final VirtualFile virtualFile = file.getVirtualFile();
+    CharSequence content = getDocumentContent();
+    if( content != null )
+    {
+      return content;
+    }
+    try( InputStream in = openInputStream() )
+    {
+      return new String( FileUtilRt.loadBytes( in ), charset );
+    }
+  }
+
+  private CharSequence getDocumentContent()
+  {
+    final VirtualFile virtualFile = getVirtualFile();
 
     // we're getting the cached documents since getDocument() forces PSI creating which will cause deadlock !!!
     if( virtualFile != null && !virtualFile.getFileType().isBinary() )
     {
-//      return LoadTextUtil.loadText( virtualFile ).toString();
       final Document document = FileDocumentManager.getInstance().getCachedDocument( virtualFile );
-      final String[] result = new String[1];
       if( document != null )
       {
-        if( ApplicationManagerEx.getApplicationEx().tryRunReadAction( () -> result[0] = document.getText() ) )
-        {
-          return result[0];
-        }
-        else
-        {
-          return document.getCharsSequence().toString();
-        }
+        // an immutable snapshot, safe to read without a read action
+        return document.getImmutableCharSequence();
       }
     }
-
     return null;
   }
 
@@ -30,10 +30,16 @@ import com.intellij.openapi.vfs.impl.http.HttpVirtualFile;
 import com.intellij.openapi.vfs.impl.http.RemoteFileInfo;
 import com.intellij.openapi.vfs.impl.jar.JarFileSystemImpl;
 import com.intellij.openapi.vfs.impl.local.LocalFileSystemImpl;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.util.containers.ContainerUtil;
 import java.io.File;
 import java.net.JarURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -57,7 +63,9 @@ public class IjFileSystem extends BaseService implements IFileSystem
   private final IDirectoryResourceExtractor _dirExtractor;
   private final IFileResourceExtractor _fileExtractor;
   private final ReentrantLock _lock;
-
+  // interned resources, weak values so they live only as long as they are referenced
+  private final Map<VirtualFile, IjFile> _filesByVirtualFile;
+  private final Map<VirtualFile, IjDirectory> _dirsByVirtualFile;
 
   public IjFileSystem( ManProject project )
   {
@@ -66,6 +74,8 @@ public class IjFileSystem extends BaseService implements IFileSystem
     _dirExtractor = new IDirectoryResourceExtractor();
     _fileExtractor = new IFileResourceExtractor();
     _lock = new ReentrantLock();
+    _filesByVirtualFile = ContainerUtil.createConcurrentWeakValueMap();
+    _dirsByVirtualFile = ContainerUtil.createConcurrentWeakValueMap();
   }
 
   public ManProject getProject()
@@ -104,7 +114,7 @@ public class IjFileSystem extends BaseService implements IFileSystem
       }
       return new IjJarDirectory( this, file );
     }
-    return file != null ? new IjDirectory( this, file ) : new IjDirectory( this, pathString );
+    return file != null ? getIDirectory( file ) : new IjDirectory( this, pathString );
   }
 
   @Override
@@ -122,7 +132,7 @@ public class IjFileSystem extends BaseService implements IFileSystem
     {
       file = JarFileSystemImpl.getInstance().findFileByPath( pathString );
     }
-    return file != null ? new IjFile( this, file ) : new IjFile( this, pathString );
+    return file != null ? internFile( file ) : new IjFile( this, pathString );
   }
 
 
@@ -137,13 +147,49 @@ public class IjFileSystem extends BaseService implements IFileSystem
       }
     }
 
-    return new IjFile( this, file );
+    return internFile( file );
   }
 
+  IjFile internFile( VirtualFile file )
+  {
+    return _filesByVirtualFile.computeIfAbsent( file, f -> new IjFile( this, f ) );
+  }
 
   public IjDirectory getIDirectory( VirtualFile file )
   {
-    return new IjDirectory( this, file );
+    return _dirsByVirtualFile.computeIfAbsent( file, f -> new IjDirectory( this, f ) );
+  }
+
+  /**
+   * Drop interned resources whose paths are changed by VFS events. A resource's path is fixed when it is created, so
+   * after a move, rename, or delete the resource must be recreated. Moving or renaming a directory changes the paths of
+   * everything beneath it, in which case all interned resources are dropped.
+   */
+  public void vfsChanged( List<? extends VFileEvent> events )
+  {
+    for( VFileEvent event: events )
+    {
+      VirtualFile file = event.getFile();
+      if( file == null )
+      {
+        continue;
+      }
+
+      boolean moveOrRename = event instanceof VFileMoveEvent ||
+        event instanceof VFilePropertyChangeEvent &&
+        VirtualFile.PROP_NAME.equals( ((VFilePropertyChangeEvent)event).getPropertyName() );
+      if( moveOrRename && file.isDirectory() )
+      {
+        _filesByVirtualFile.clear();
+        _dirsByVirtualFile.clear();
+        return;
+      }
+      if( moveOrRename || event instanceof VFileDeleteEvent || event instanceof VFilePropertyChangeEvent )
+      {
+        _filesByVirtualFile.remove( file );
+        _dirsByVirtualFile.remove( file );
+      }
+    }
   }
 
 
@@ -48,7 +48,7 @@ public class IjJarDirectory extends IjDirectory
   public IFile file( String path )
   {
     VirtualFile child = _virtualFile.findFileByRelativePath( normalize( path ) );
-    return child == null ? null : new IjFile( getFileSystem(), child );
+    return child == null ? null : getFileSystem().internFile( child );
   }
 
   private String normalize( String relativePath )
@@ -42,6 +42,7 @@ public abstract class IjResource implements IResource
   private IjFileSystem _fs;
   VirtualFile _virtualFile;
   final String _path;
+  private volatile ResourcePath _resourcePath;
 
   IjResource( IjFileSystem fs, VirtualFile virtualFile )
   {
@@ -68,7 +69,7 @@ public abstract class IjResource implements IResource
     {
       if( _virtualFile.getParent() != null )
       {
-        return new IjDirectory( getFileSystem(), _virtualFile.getParent() );
+        return getFileSystem().getIDirectory( _virtualFile.getParent() );
       }
       if( !(_virtualFile instanceof LightVirtualFile) || _path.length() <= 3 )
       {
@@ -112,14 +113,22 @@ public abstract class IjResource implements IResource
   @Override
   public ResourcePath getPath()
   {
-    return ResourcePath.parse( _path );
+    ResourcePath resourcePath = _resourcePath;
+    if( resourcePath == null )
+    {
+      // _path is fixed, so is its parse
+      _resourcePath = resourcePath = ResourcePath.parse( _path );
+    }
+    return resourcePath;
   }
 
   @Override
   public boolean isChildOf( IDirectory dir )
   {
     String dirPath = ((IjDirectory)dir)._path;
-    return _path.length() > dirPath.length() && _path.startsWith( dirPath ) && _path.charAt( dirPath.length() ) == '/';
+    int dirLength = dirPath.length();
+    return _path.length() > dirLength && _path.charAt( dirLength ) == '/' &&
+           _path.regionMatches( 0, dirPath, 0, dirLength );
   }
 
   @Override
@@ -127,14 +136,19 @@ public abstract class IjResource implements IResource
   {
     if( dir instanceof IjDirectory )
     {
-      // note, trailing '/' prevents /root/src2 matching against /root/src
+      String dirPath = ((IjDirectory)dir)._path;
       if( _path.contains( ".jar" ) )
       {
-        return _path.startsWith( ((IjDirectory)dir)._path );
+        return _path.startsWith( dirPath );
       }
       else
       {
-        return (_path + '/').startsWith( ((IjDirectory)dir)._path + '/' );
+        // same as (_path + '/').startsWith( dirPath + '/' ) without allocating, the trailing '/' prevents /root/src2
+        // matching against /root/src
+        int dirLength = dirPath.length();
+        return _path.length() >= dirLength &&
+               _path.regionMatches( 0, dirPath, 0, dirLength ) &&
+               (_path.length() == dirLength || _path.charAt( dirLength ) == '/');
       }
     }
     return false;
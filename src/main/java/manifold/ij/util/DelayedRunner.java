@@ -23,50 +23,185 @@
 
 package manifold.ij.util;
 
-import com.google.common.collect.Maps;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Executes a task after a certain time delay. The task can be rescheduled which causes the old task to be cancelled
  * if it did not execute yet. Useful for reducing the frequency of refresh operations.
- * Tasks are executed on a timer thread.
+ * <p/>
+ * Tasks execute on a bounded pool. Tasks with different keys run concurrently, tasks with the same key never do: a
+ * task coming due while the previous task for its key is still running waits for it to finish.
  */
 public class DelayedRunner
 {
-  private static final Logger LOG = Logger.getInstance(DelayedRunner.class);
+  private static final Logger LOG = Logger.getInstance( DelayedRunner.class );
+  private static final int DEFAULT_MAX_THREADS = 2;
 
-  private final Timer timer = new Timer(true);
-  private final Map<String, TimerTask> tasksByKey = Maps.newHashMap();
+  private final ScheduledExecutorService _executor;
+  // guarded by this
+  private final Map<String, KeyState> _stateByKey;
+  private final AtomicInteger _queueDepth;
+  private final AtomicLong _executedCount;
+  private final AtomicLong _totalLatencyNanos;
+  private final AtomicLong _maxLatencyNanos;
 
-  public synchronized void scheduleTask(final String key, long millis, Runnable userTask) {
-    TimerTask refreshTask = tasksByKey.get(key);
-    if (refreshTask != null) {
-      refreshTask.cancel();
-    }
-    refreshTask = new MyDelayedTask(key, userTask);
-    tasksByKey.put(key, refreshTask);
-    timer.schedule(refreshTask, millis);
+  public DelayedRunner()
+  {
+    this( DEFAULT_MAX_THREADS );
+  }
+
+  public DelayedRunner( int maxThreads )
+  {
+    this( AppExecutorUtil.createBoundedScheduledExecutorService( "Manifold Delayed Runner", maxThreads ) );
   }
 
-  private class MyDelayedTask extends TimerTask {
-    private final String key;
-    private final Runnable userTask;
+  DelayedRunner( ScheduledExecutorService executor )
+  {
+    _executor = executor;
+    _stateByKey = new HashMap<>();
+    _queueDepth = new AtomicInteger();
+    _executedCount = new AtomicLong();
+    _totalLatencyNanos = new AtomicLong();
+    _maxLatencyNanos = new AtomicLong();
+  }
 
-    public MyDelayedTask(String key, Runnable userTask) {
-      this.key = key;
-      this.userTask = userTask;
+  public synchronized void scheduleTask( String key, long millis, Runnable userTask )
+  {
+    KeyState state = _stateByKey.computeIfAbsent( key, k -> new KeyState() );
+    if( state._scheduled != null )
+    {
+      state._scheduled._future.cancel( false );
+      state._scheduled = null;
+      _queueDepth.decrementAndGet();
     }
+    if( state._ready != null )
+    {
+      // came due while another task for the key was running, superseded before it could run
+      state._ready = null;
+      _queueDepth.decrementAndGet();
+    }
+
+    DelayedTask task = new DelayedTask( userTask, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( millis ) );
+    state._scheduled = task;
+    _queueDepth.incrementAndGet();
+    task._future = _executor.schedule( () -> fire( key, task ), millis, TimeUnit.MILLISECONDS );
+  }
 
-    public void run() {
-      tasksByKey.remove(key);
-      try {
-        userTask.run();
-      } catch (Throwable e) {
-        LOG.error("DelayedRunner task threw an exception.", e);
+  private void fire( String key, DelayedTask task )
+  {
+    KeyState state;
+    synchronized( this )
+    {
+      state = _stateByKey.get( key );
+      if( state == null || state._scheduled != task )
+      {
+        // superseded
+        return;
+      }
+      state._scheduled = null;
+      if( state._running )
+      {
+        state._ready = task;
+        return;
       }
+      state._running = true;
+    }
+
+    DelayedTask current = task;
+    while( current != null )
+    {
+      run( current );
+      synchronized( this )
+      {
+        current = state._ready;
+        state._ready = null;
+        if( current == null )
+        {
+          state._running = false;
+          if( state._scheduled == null )
+          {
+            _stateByKey.remove( key );
+          }
+        }
+      }
+    }
+  }
+
+  private void run( DelayedTask task )
+  {
+    _queueDepth.decrementAndGet();
+    long latency = Math.max( 0, System.nanoTime() - task._dueNanos );
+    _totalLatencyNanos.addAndGet( latency );
+    _maxLatencyNanos.accumulateAndGet( latency, Math::max );
+    _executedCount.incrementAndGet();
+    try
+    {
+      task._userTask.run();
+    }
+    catch( Throwable e )
+    {
+      LOG.error( "DelayedRunner task threw an exception.", e );
+    }
+  }
+
+  /**
+   * @return The number of tasks scheduled and not yet started
+   */
+  public int getQueueDepth()
+  {
+    return _queueDepth.get();
+  }
+
+  /**
+   * @return The number of tasks executed
+   */
+  public long getExecutedCount()
+  {
+    return _executedCount.get();
+  }
+
+  /**
+   * @return The average time, in milliseconds, between a task coming due and starting to execute
+   */
+  public double getAverageLatencyMillis()
+  {
+    long count = _executedCount.get();
+    return count == 0 ? 0 : _totalLatencyNanos.get() / (count * 1_000_000.0);
+  }
+
+  /**
+   * @return The longest time, in milliseconds, between a task coming due and starting to execute
+   */
+  public double getMaxLatencyMillis()
+  {
+    return _maxLatencyNanos.get() / 1_000_000.0;
+  }
+
+  private static class KeyState
+  {
+    private DelayedTask _scheduled;
+    private DelayedTask _ready;
+    private boolean _running;
+  }
+
+  private static class DelayedTask
+  {
+    private final Runnable _userTask;
+    private final long _dueNanos;
+    private volatile ScheduledFuture<?> _future;
+
+    DelayedTask( Runnable userTask, long dueNanos )
+    {
+      _userTask = userTask;
+      _dueNanos = dueNanos;
     }
   }
 }
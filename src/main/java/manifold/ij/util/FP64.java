@@ -187,6 +187,21 @@ public final class FP64
     return this;
   }
 
+  /**
+   * Extends this fingerprint by the characters of the CharSequence
+   * <code>s</code>, which must be non-null.
+   *
+   * @return
+   * the resulting fingerprint.
+   */
+  public FP64 extend(CharSequence s) {
+    final int len = s.length();
+    for (int i = 0; i < len; i++) {
+      extend(s.charAt(i));
+    }
+    return this;
+  }
+
   /**
    * Extends this fingerprint by the characters
    * <code>chars[start]..chars[start+length-1]</code>.
@@ -27,9 +27,13 @@ import com.intellij.psi.SmartPsiElementPointer;
 import com.intellij.psi.impl.source.resolve.FileContextUtil;
 import com.intellij.testFramework.LightVirtualFile;
 import com.intellij.util.indexing.IndexingDataKeys;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import manifold.api.fs.IFile;
 import manifold.api.type.ITypeManifold;
 import manifold.ij.core.ManModule;
 import manifold.ij.core.ManProject;
@@ -134,4 +138,25 @@ public class FileUtil
     return typeNames;
   }
 
+  /**
+   * Extends {@code fp} with the content of {@code file}. Note if the file is open in an editor, the editor's document
+   * is read, unsaved changes included.
+   */
+  public static FP64 extendFingerprint( FP64 fp, IFile file ) throws IOException
+  {
+    if( file instanceof IjFile )
+    {
+      VirtualFile vfile = ((IjFile)file).getVirtualFile();
+      if( vfile != null && !vfile.getFileType().isBinary() )
+      {
+        // fingerprint text by its chars, an open document is then read without encoding it
+        return fp.extend( ((IjFile)file).getCharSequence() );
+      }
+    }
+
+    try( InputStream in = new BufferedInputStream( file.openInputStream() ) )
+    {
+      return fp.extend( in );
+    }
+  }
 }
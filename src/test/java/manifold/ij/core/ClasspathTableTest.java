@@ -0,0 +1,137 @@
+package manifold.ij.core;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import manifold.api.fs.IDirectory;
+import manifold.api.host.Dependency;
+import manifold.api.host.IModule;
+
+public class ClasspathTableTest extends TestCase
+{
+  public void testDependencyEntriesRemoved()
+  {
+    IModule lib = module( "lib", dirs( "a", "b" ) );
+    IModule app = module( "app", dirs( "a", "c", "b" ), new Dependency( lib, false ) );
+
+    Map<IModule, List<IDirectory>> reduced = new ClasspathTable().reduce( Collections.singletonList( app ) );
+
+    assertEquals( Arrays.asList( lib, app ), new ArrayList<>( reduced.keySet() ) );
+    assertEquals( dirs( "a", "b" ), reduced.get( lib ) );
+    assertEquals( dirs( "c" ), reduced.get( app ) );
+  }
+
+  public void testOnlyExportedDependenciesAreTransitive()
+  {
+    IModule base = module( "base", dirs( "a" ) );
+    IModule exporting = module( "exporting", dirs( "b" ), new Dependency( base, true ) );
+    IModule hiding = module( "hiding", dirs( "c" ), new Dependency( base, false ) );
+    IModule app1 = module( "app1", dirs( "a", "b", "d" ), new Dependency( exporting, false ) );
+    IModule app2 = module( "app2", dirs( "a", "c", "d" ), new Dependency( hiding, false ) );
+
+    Map<IModule, List<IDirectory>> reduced = new ClasspathTable().reduce( Arrays.asList( app1, app2 ) );
+
+    assertEquals( dirs( "d" ), reduced.get( app1 ) );
+    assertEquals( dirs( "a", "d" ), reduced.get( app2 ) );
+  }
+
+  public void testKeptModuleIsNotReducedAgain()
+  {
+    IModule lib = module( "lib", dirs( "a" ) );
+    IModule app = module( "app", dirs( "a", "b" ), new Dependency( lib, false ) );
+
+    ClasspathTable table = new ClasspathTable();
+    table.addReduced( lib );
+    Map<IModule, List<IDirectory>> reduced = table.reduce( Collections.singletonList( app ) );
+
+    assertFalse( reduced.containsKey( lib ) );
+    assertEquals( dirs( "b" ), reduced.get( app ) );
+  }
+
+  public void testEqualEntriesShareOneInstance()
+  {
+    List<IDirectory> libDirs = dirs( "a" );
+    IModule lib = module( "lib", libDirs );
+    IModule app = module( "app", dirs( "a", "b" ) );
+
+    Map<IModule, List<IDirectory>> reduced = new ClasspathTable().reduce( Arrays.asList( lib, app ) );
+
+    assertSame( libDirs.get( 0 ), reduced.get( app ).get( 0 ) );
+  }
+
+  public void testCycleTerminates()
+  {
+    List<Dependency> aDeps = new ArrayList<>();
+    IModule a = module( "a", dirs( "x", "y" ), aDeps );
+    IModule b = module( "b", dirs( "x" ), new ArrayList<>( Collections.singletonList( new Dependency( a, true ) ) ) );
+    aDeps.add( new Dependency( b, true ) );
+
+    Map<IModule, List<IDirectory>> reduced = new ClasspathTable().reduce( Collections.singletonList( a ) );
+
+    assertEquals( 2, reduced.size() );
+  }
+
+  private static IModule module( String name, List<IDirectory> classpath, Dependency... deps )
+  {
+    return module( name, classpath, Arrays.asList( deps ) );
+  }
+
+  private static IModule module( String name, List<IDirectory> classpath, List<Dependency> deps )
+  {
+    return (IModule)Proxy.newProxyInstance( IModule.class.getClassLoader(), new Class[] {IModule.class},
+      ( proxy, method, args ) -> {
+        switch( method.getName() )
+        {
+          case "getJavaClassPath":
+            return classpath;
+          case "getDependencies":
+            return deps;
+          case "getName":
+          case "toString":
+            return name;
+          case "hashCode":
+            return System.identityHashCode( proxy );
+          case "equals":
+            return proxy == args[0];
+          default:
+            throw new UnsupportedOperationException( method.getName() );
+        }
+      } );
+  }
+
+  private static List<IDirectory> dirs( String... names )
+  {
+    List<IDirectory> dirs = new ArrayList<>();
+    for( String name: names )
+    {
+      dirs.add( dir( name ) );
+    }
+    return dirs;
+  }
+
+  /**
+   * A directory equal to any other directory of the same name
+   */
+  private static IDirectory dir( String name )
+  {
+    return (IDirectory)Proxy.newProxyInstance( IDirectory.class.getClassLoader(), new Class[] {IDirectory.class},
+      ( proxy, method, args ) -> {
+        switch( method.getName() )
+        {
+          case "getName":
+          case "toString":
+            return name;
+          case "hashCode":
+            return name.hashCode();
+          case "equals":
+            return args[0] instanceof IDirectory && name.equals( args[0].toString() );
+          default:
+            throw new UnsupportedOperationException( method.getName() );
+        }
+      } );
+  }
+}
@@ -0,0 +1,30 @@
+package manifold.ij.core;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import junit.framework.TestCase;
+
+public class ManifestClassPathCacheTest extends TestCase
+{
+  public void testParseAbsoluteFileUrls() throws Exception
+  {
+    File a = new File( "/libs/a.jar" );
+    File b = new File( "/libs/classes" );
+    String value = a.toURI().toURL() + "  " + b.toURI().toURL() + " ";
+    assertEquals( Arrays.asList( a.getAbsolutePath(), b.getAbsolutePath() ),
+      ManifestClassPathCache.parseClassPath( value ) );
+  }
+
+  public void testRelativeAndNonFileEntriesSkipped()
+  {
+    assertEquals( Collections.emptyList(),
+      ManifestClassPathCache.parseClassPath( "xercesImpl.jar xml-apis.jar http://example.com/lib.jar" ) );
+  }
+
+  public void testNoClassPath()
+  {
+    assertEquals( Collections.emptyList(), ManifestClassPathCache.parseClassPath( null ) );
+    assertEquals( Collections.emptyList(), ManifestClassPathCache.parseClassPath( "" ) );
+  }
+}
@@ -0,0 +1,72 @@
+package manifold.ij.core;
+
+import com.intellij.openapi.roots.LibraryOrderEntry;
+import com.intellij.openapi.roots.ModuleRootModificationUtil;
+import com.intellij.openapi.roots.OrderEntry;
+import com.intellij.openapi.roots.OrderRootType;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.PsiTestUtil;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.jar.JarOutputStream;
+import manifold.ij.AbstractManifoldCodeInsightTest;
+import manifold.ij.util.FP64;
+
+public class ModuleSignatureTest extends AbstractManifoldCodeInsightTest
+{
+  public void testSignatureIsStable()
+  {
+    ManProject project = ManProject.manProjectFrom( getProject() );
+    assertEquals( project.makeSignature( getModule() ), project.makeSignature( getModule() ) );
+  }
+
+  public void testSourceRootChangesSignature()
+  {
+    ManProject project = ManProject.manProjectFrom( getProject() );
+    FP64 before = project.makeSignature( getModule() );
+
+    VirtualFile dir = myFixture.getTempDirFixture().findOrCreateDir( "moreSrc" );
+    PsiTestUtil.addSourceRoot( getModule(), dir );
+    try
+    {
+      assertFalse( before.equals( project.makeSignature( getModule() ) ) );
+    }
+    finally
+    {
+      PsiTestUtil.removeSourceRoot( getModule(), dir );
+    }
+    assertEquals( before, project.makeSignature( getModule() ) );
+  }
+
+  public void testJarRebuiltInPlaceChangesSignature() throws Exception
+  {
+    ManProject project = ManProject.manProjectFrom( getProject() );
+    File jar = File.createTempFile( "signature", ".jar" );
+    new JarOutputStream( Files.newOutputStream( jar.toPath() ) ).close();
+    assertNotNull( LocalFileSystem.getInstance().refreshAndFindFileByIoFile( jar ) );
+    String url = "jar://" + jar.getAbsolutePath().replace( File.separatorChar, '/' ) + "!/";
+    ModuleRootModificationUtil.addModuleLibrary( getModule(), url );
+    try
+    {
+      FP64 before = project.makeSignature( getModule() );
+      assertTrue( jar.setLastModified( jar.lastModified() - 60_000 ) );
+      assertFalse( before.equals( project.makeSignature( getModule() ) ) );
+    }
+    finally
+    {
+      ModuleRootModificationUtil.updateModel( getModule(), model -> {
+        for( OrderEntry entry: model.getOrderEntries() )
+        {
+          if( entry instanceof LibraryOrderEntry &&
+              Arrays.asList( entry.getUrls( OrderRootType.CLASSES ) ).contains( url ) )
+          {
+            model.removeOrderEntry( entry );
+          }
+        }
+      } );
+      jar.delete();
+    }
+  }
+}
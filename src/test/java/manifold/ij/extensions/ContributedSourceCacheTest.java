@@ -0,0 +1,91 @@
+package manifold.ij.extensions;
+
+import com.intellij.openapi.util.io.FileUtil;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+public class ContributedSourceCacheTest extends TestCase
+{
+  private Path _root;
+
+  @Override
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    _root = Files.createTempDirectory( "manifold-types" );
+  }
+
+  @Override
+  protected void tearDown() throws Exception
+  {
+    FileUtil.delete( _root.toFile() );
+    super.tearDown();
+  }
+
+  public void testEntryRoundTrip() throws IOException
+  {
+    Path entry = _root.resolve( "project" ).resolve( "entry" );
+    ContributedSourceCache.writeEntry( entry, "abc123", "package foo;\nclass Bar {}\n" );
+    assertEquals( "package foo;\nclass Bar {}\n", ContributedSourceCache.readEntry( entry, "abc123" ) );
+    // no temp files left behind
+    assertEquals( 1, _root.resolve( "project" ).toFile().list().length );
+  }
+
+  public void testChangedFingerprintMisses() throws IOException
+  {
+    Path entry = _root.resolve( "project" ).resolve( "entry" );
+    ContributedSourceCache.writeEntry( entry, "abc123", "class Bar {}" );
+    assertNull( ContributedSourceCache.readEntry( entry, "abc124" ) );
+    assertNull( ContributedSourceCache.readEntry( entry, "abc" ) );
+  }
+
+  public void testMissingEntryMisses() throws IOException
+  {
+    assertNull( ContributedSourceCache.readEntry( _root.resolve( "project" ).resolve( "none" ), "abc123" ) );
+  }
+
+  public void testPruneDeletesOldEntriesAndEmptyProjects() throws IOException
+  {
+    long now = System.currentTimeMillis();
+    long maxAge = TimeUnit.DAYS.toMillis( ContributedSourceCache.MAX_ENTRY_AGE_DAYS );
+
+    Path fresh = _root.resolve( "project1" ).resolve( "fresh" );
+    Path old = _root.resolve( "project1" ).resolve( "old" );
+    Path gone = _root.resolve( "project2" ).resolve( "gone" );
+    ContributedSourceCache.writeEntry( fresh, "1", "" );
+    ContributedSourceCache.writeEntry( old, "1", "" );
+    ContributedSourceCache.writeEntry( gone, "1", "" );
+    Files.setLastModifiedTime( old, FileTime.fromMillis( now - maxAge - 1000 ) );
+    Files.setLastModifiedTime( gone, FileTime.fromMillis( now - maxAge - 1000 ) );
+
+    ContributedSourceCache.prune( _root, maxAge, now );
+
+    assertTrue( Files.exists( fresh ) );
+    assertFalse( Files.exists( old ) );
+    assertFalse( Files.exists( _root.resolve( "project2" ) ) );
+  }
+
+  public void testReadKeepsEntryFromPruning() throws IOException
+  {
+    long maxAge = TimeUnit.DAYS.toMillis( ContributedSourceCache.MAX_ENTRY_AGE_DAYS );
+    Path entry = _root.resolve( "project" ).resolve( "entry" );
+    ContributedSourceCache.writeEntry( entry, "1", "class Bar {}" );
+    Files.setLastModifiedTime( entry, FileTime.fromMillis( System.currentTimeMillis() - maxAge - 1000 ) );
+
+    assertNotNull( ContributedSourceCache.readEntry( entry, "1" ) );
+    ContributedSourceCache.prune( _root, maxAge, System.currentTimeMillis() );
+    assertTrue( Files.exists( entry ) );
+  }
+
+  public void testParseExtensions()
+  {
+    assertEquals( new HashSet<>( Arrays.asList( "properties", "png" ) ),
+      ContributedSourceCache.parseExtensions( " properties, PNG,," ) );
+  }
+}
@@ -0,0 +1,46 @@
+package manifold.ij.extensions;
+
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import java.util.Set;
+import manifold.api.type.ITypeManifold;
+import manifold.ij.AbstractManifoldCodeInsightTest;
+import manifold.ij.core.ManModule;
+import manifold.ij.core.ManProject;
+
+public class ContributedSourceFingerprintTest extends AbstractManifoldCodeInsightTest
+{
+  public void testFingerprintCoversContentAndDependencies() throws Exception
+  {
+    VirtualFile person = myFixture.copyFileToProject( "json/sample/Person.json" );
+    VirtualFile junk = myFixture.copyFileToProject( "json/sample/Junk.json" );
+    ManModule module = ManProject.getModule( getModule() );
+    Set<ITypeManifold> tms = module.findTypeManifoldsFor( "json.sample.Person", ManModule.TypeManifoldKind.PrimaryOrPartial );
+    ContributedSourceCache cache = new ContributedSourceCache( module.getProject() );
+
+    String fingerprint = cache.fingerprint( module, tms, "json.sample.Person" );
+    assertNotNull( fingerprint );
+    assertEquals( fingerprint, cache.fingerprint( module, tms, "json.sample.Person" ) );
+
+    // another file of the same type manifold, e.g., a schema the type references
+    WriteAction.run( () -> VfsUtil.saveText( junk, VfsUtil.loadText( junk ) + "\n" ) );
+    cache.invalidateDependencyKeys();
+    String afterDependencyChange = cache.fingerprint( module, tms, "json.sample.Person" );
+    assertNotNull( afterDependencyChange );
+    assertFalse( fingerprint.equals( afterDependencyChange ) );
+
+    WriteAction.run( () -> VfsUtil.saveText( person, VfsUtil.loadText( person ).replace( "\"lastName\"", "\"surname\"" ) ) );
+    cache.invalidateDependencyKeys();
+    assertFalse( afterDependencyChange.equals( cache.fingerprint( module, tms, "json.sample.Person" ) ) );
+  }
+
+  public void testDefaultExtensionsCoverStructuredResources()
+  {
+    Set<String> extensions = ContributedSourceCache.parseExtensions( ContributedSourceCache.DEFAULT_EXTENSIONS );
+    for( String ext: new String[] {"graphql", "json", "xml", "yaml", "yml", "properties"} )
+    {
+      assertTrue( ext, extensions.contains( ext ) );
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package manifold.ij.extensions;
+
+import junit.framework.TestCase;
+import manifold.ij.extensions.FileRelevanceFilter.Drop;
+import manifold.ij.extensions.FileRelevanceFilter.Kind;
+import manifold.ij.extensions.FileRelevanceFilter.Node;
+
+public class FileRelevanceFilterTest extends TestCase
+{
+  private Node _root;
+
+  @Override
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    _root = new Node();
+    FileRelevanceFilter.add( _root, "/work/app/src/main/java", Kind.Source );
+    FileRelevanceFilter.add( _root, "/work/app/src/main/java/gen", Kind.Excluded );
+    FileRelevanceFilter.add( _root, "/work/app/out/production", Kind.Output );
+    FileRelevanceFilter.add( _root, "/work/app/out/test", Kind.Output );
+    FileRelevanceFilter.add( _root, "/home/me/.gradle/caches/lib/data.jar!/", Kind.Source );
+    _root.freeze();
+  }
+
+  public void testFileUnderSourceRootIsRelevant()
+  {
+    assertNull( FileRelevanceFilter.findDrop( _root, "/work/app/src/main/java/abc/Person.json" ) );
+    assertNull( FileRelevanceFilter.findDrop( _root, "/work/app/src/main/java" ) );
+  }
+
+  public void testAncestorOfRootIsRelevant()
+  {
+    assertNull( FileRelevanceFilter.findDrop( _root, "/work/app/src" ) );
+    assertNull( FileRelevanceFilter.findDrop( _root, "/work" ) );
+  }
+
+  public void testNearestRootDecides()
+  {
+    assertEquals( Drop.Excluded, FileRelevanceFilter.findDrop( _root, "/work/app/src/main/java/gen/Foo.java" ) );
+    assertEquals( Drop.Output, FileRelevanceFilter.findDrop( _root, "/work/app/out/production/abc/Foo.class" ) );
+    assertEquals( Drop.Output, FileRelevanceFilter.findDrop( _root, "/work/app/out/test/abc/FooTest.class" ) );
+  }
+
+  public void testOutsideRoots()
+  {
+    assertEquals( Drop.OutsideRoots, FileRelevanceFilter.findDrop( _root, "/work/app/build.gradle" ) );
+    assertEquals( Drop.OutsideRoots, FileRelevanceFilter.findDrop( _root, "/tmp/Foo.json" ) );
+    // a segment prefix of a root is not the root
+    assertEquals( Drop.OutsideRoots, FileRelevanceFilter.findDrop( _root, "/work/ap/Foo.json" ) );
+  }
+
+  public void testIgnoredDirectories()
+  {
+    assertEquals( Drop.IgnoredDirectory, FileRelevanceFilter.findDrop( _root, "/work/app/.idea/workspace.xml" ) );
+    assertEquals( Drop.IgnoredDirectory, FileRelevanceFilter.findDrop( _root, "/work/.git/index" ) );
+    assertEquals( Drop.IgnoredDirectory, FileRelevanceFilter.findDrop( _root, "/work/app/src/main/java/node_modules/x.js" ) );
+  }
+
+  public void testLibraryJarIsRelevant()
+  {
+    // the path to the jar passes through .gradle, it is not ignored since it leads to a root
+    assertNull( FileRelevanceFilter.findDrop( _root, "/home/me/.gradle/caches/lib/data.jar" ) );
+    assertNull( FileRelevanceFilter.findDrop( _root, "/home/me/.gradle/caches/lib/data.jar!/abc/Person.json" ) );
+    assertEquals( Drop.OutsideRoots, FileRelevanceFilter.findDrop( _root, "/home/me/.gradle/daemon/log.txt" ) );
+    assertEquals( Drop.IgnoredDirectory, FileRelevanceFilter.findDrop( _root, "/home/other/.gradle/caches/x.jar" ) );
+  }
+}
@@ -0,0 +1,201 @@
+package manifold.ij.extensions;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.psi.impl.PsiManagerImpl;
+import com.intellij.psi.impl.PsiTreeChangeEventImpl;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import manifold.ij.AbstractManifoldCodeInsightTest;
+import manifold.ij.core.ManModule;
+import manifold.ij.core.ManProject;
+
+public class ManifoldPsiClassCacheTest extends AbstractManifoldCodeInsightTest
+{
+  public void testLookupsFromManyThreadsShareOneType() throws Exception
+  {
+    myFixture.copyFileToProject( "json/sample/Person.json" );
+    ManModule module = ManProject.getModule( getModule() );
+    ManifoldPsiClassCache cache = newConcurrentCache( module );
+    assertTrue( cache.isConcurrent() );
+
+    List<Future<PsiClass>> futures = new ArrayList<>();
+    for( int i = 0; i < 8; i++ )
+    {
+      futures.add( ApplicationManager.getApplication().executeOnPooledThread( () ->
+        ReadAction.compute( () -> cache._getPsiClass( module, "json.sample.Person" ) ) ) );
+    }
+    PsiClass first = futures.get( 0 ).get();
+    assertTrue( first instanceof ManifoldPsiClass );
+    for( Future<PsiClass> future: futures )
+    {
+      assertSame( first, future.get() );
+    }
+  }
+
+  public void testNestedLookupDoesNotWaitForStripeHeldElsewhere() throws Exception
+  {
+    myFixture.copyFileToProject( "json/sample/Person.json" );
+    ManModule module = ManProject.getModule( getModule() );
+    ManifoldPsiClassCache cache = newConcurrentCache( module );
+
+    // another thread holds the type's stripe, e.g., while it creates an unrelated type on the same stripe
+    ReentrantLock personLock = cache.getTypeLock( "json.sample.Person" );
+    CountDownLatch locked = new CountDownLatch( 1 );
+    CountDownLatch release = new CountDownLatch( 1 );
+    Future<?> holder = ApplicationManager.getApplication().executeOnPooledThread( () -> {
+      personLock.lock();
+      try
+      {
+        locked.countDown();
+        release.await();
+      }
+      catch( InterruptedException ignore )
+      {
+      }
+      finally
+      {
+        personLock.unlock();
+      }
+    } );
+    locked.await();
+
+    PsiClass person;
+    try
+    {
+      // this thread is creating a type on another stripe, the lookup nested in it falls back to creating the type
+      // without the held stripe
+      ReentrantLock outer = cache.lockType( findOtherStripe( cache, personLock ) );
+      assertNotNull( outer );
+      try
+      {
+        person = cache._getPsiClass( module, "json.sample.Person" );
+      }
+      finally
+      {
+        cache.unlockType( outer );
+      }
+    }
+    finally
+    {
+      release.countDown();
+      holder.get();
+    }
+
+    assertTrue( person instanceof ManifoldPsiClass );
+    assertSame( person, cache._getPsiClass( module, "json.sample.Person" ) );
+  }
+
+  public void testPackageListingCreatesEachType()
+  {
+    myFixture.copyFileToProject( "json/sample/Person.json" );
+    myFixture.copyFileToProject( "json/sample/Junk.json" );
+    ManModule module = ManProject.getModule( getModule() );
+
+    List<PsiClass> types = ManifoldPsiClassCache.getPsiClasses( module, listing() );
+    assertEquals( 2, types.size() );
+    assertSame( ManifoldPsiClassCache.getPsiClass( module, "json.sample.Person" ), types.get( 0 ) );
+    assertSame( ManifoldPsiClassCache.getPsiClass( module, "json.sample.Junk" ), types.get( 1 ) );
+  }
+
+  public void testConcurrentPackageListingNestedInTypeCreation() throws Exception
+  {
+    myFixture.copyFileToProject( "json/sample/Person.json" );
+    myFixture.copyFileToProject( "json/sample/Junk.json" );
+    ManModule module = ManProject.getModule( getModule() );
+    ManifoldPsiClassCache cache = newConcurrentCache( module );
+
+    // the listing is requested while this thread creates a type holding the stripe of a type in the listing, the
+    // tasks creating the listed types must not wait for this thread
+    Future<List<PsiClass>> future = ApplicationManager.getApplication().executeOnPooledThread( () ->
+      ReadAction.compute( () -> {
+        ReentrantLock outer = cache.lockType( "json.sample.Person" );
+        try
+        {
+          return cache._getPsiClasses( module, listing() );
+        }
+        finally
+        {
+          cache.unlockType( outer );
+        }
+      } ) );
+    List<PsiClass> types = future.get( 60, TimeUnit.SECONDS );
+    assertEquals( 2, types.size() );
+    assertSame( cache._getPsiClass( module, "json.sample.Person" ), types.get( 0 ) );
+    assertSame( cache._getPsiClass( module, "json.sample.Junk" ), types.get( 1 ) );
+  }
+
+  private static Map<String, List<String>> listing()
+  {
+    Map<String, List<String>> typesByTopLevel = new LinkedHashMap<>();
+    typesByTopLevel.put( "json.sample.Person", Collections.singletonList( "json.sample.Person" ) );
+    typesByTopLevel.put( "json.sample.Junk", Collections.singletonList( "json.sample.Junk" ) );
+    return typesByTopLevel;
+  }
+
+  public void testMissIsNotAType()
+  {
+    myFixture.copyFileToProject( "json/sample/Person.json" );
+    ManModule module = ManProject.getModule( getModule() );
+    assertNull( ManifoldPsiClassCache.getPsiClass( module, "json.sample.NotThere" ) );
+    assertNotNull( ManifoldPsiClassCache.getPsiClass( module, "json.sample.Person" ) );
+  }
+
+  public void testRootsChangeKeepsTypesOfUnchangedModules()
+  {
+    myFixture.copyFileToProject( "json/sample/Person.json" );
+    ManModule module = ManProject.getModule( getModule() );
+    PsiClass person = ManifoldPsiClassCache.getPsiClass( module, "json.sample.Person" );
+    assertTrue( person instanceof ManifoldPsiClass );
+
+    // a PSI roots change reported after the module root listeners updated the modules, no module changes
+    PsiManagerImpl psiManager = (PsiManagerImpl)PsiManager.getInstance( getProject() );
+    PsiTreeChangeEventImpl event = new PsiTreeChangeEventImpl( psiManager );
+    event.setPropertyName( PsiTreeChangeEvent.PROP_ROOTS );
+    WriteAction.run( () -> {
+      psiManager.beforePropertyChange( event );
+      psiManager.propertyChanged( event );
+    } );
+
+    assertSame( module, ManProject.getModule( getModule() ) );
+    assertSame( person, ManifoldPsiClassCache.getPsiClass( module, "json.sample.Person" ) );
+  }
+
+  static ManifoldPsiClassCache newConcurrentCache( ManModule module )
+  {
+    // the setting is read when the cache is created
+    boolean enabled = ManifoldPsiClassCache.isConcurrentTypeLookupEnabled();
+    ManifoldPsiClassCache.setConcurrentTypeLookupEnabled( true );
+    try
+    {
+      return new ManifoldPsiClassCache( module.getProject() );
+    }
+    finally
+    {
+      ManifoldPsiClassCache.setConcurrentTypeLookupEnabled( enabled );
+    }
+  }
+
+  private static String findOtherStripe( ManifoldPsiClassCache cache, ReentrantLock lock )
+  {
+    for( int i = 0; ; i++ )
+    {
+      String name = "other.Type" + i;
+      if( cache.getTypeLock( name ) != lock )
+      {
+        return name;
+      }
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package manifold.ij.extensions;
+
+import junit.framework.TestCase;
+import manifold.api.host.RefreshKind;
+import manifold.ij.extensions.FileModificationManager.PendingRefresh;
+
+public class PendingRefreshTest extends TestCase
+{
+  public void testCreatedThenDeletedCancels()
+  {
+    PendingRefresh pending = new PendingRefresh( null, RefreshKind.CREATION, 0 );
+    assertNull( pending.merge( null, RefreshKind.DELETION ) );
+  }
+
+  public void testCreatedThenModifiedStaysCreated()
+  {
+    PendingRefresh pending = new PendingRefresh( null, RefreshKind.CREATION, 0 );
+    assertEquals( RefreshKind.CREATION, pending.merge( null, RefreshKind.MODIFICATION ).getKind() );
+  }
+
+  public void testModifiedThenDeletedIsDeleted()
+  {
+    PendingRefresh pending = new PendingRefresh( null, RefreshKind.MODIFICATION, 0 );
+    assertEquals( RefreshKind.DELETION, pending.merge( null, RefreshKind.DELETION ).getKind() );
+  }
+
+  public void testDeletedThenRecreatedIsModified()
+  {
+    PendingRefresh pending = new PendingRefresh( null, RefreshKind.DELETION, 0 );
+    assertEquals( RefreshKind.MODIFICATION, pending.merge( null, RefreshKind.CREATION ).getKind() );
+  }
+
+  public void testRenamedAwayAndBackIsModified()
+  {
+    // old path: deleted by the first rename, recreated by the second
+    PendingRefresh oldPath = new PendingRefresh( null, RefreshKind.DELETION, 0 );
+    assertEquals( RefreshKind.MODIFICATION, oldPath.merge( null, RefreshKind.CREATION ).getKind() );
+
+    // new path: created by the first rename, deleted by the second
+    PendingRefresh newPath = new PendingRefresh( null, RefreshKind.CREATION, 0 );
+    assertNull( newPath.merge( null, RefreshKind.DELETION ) );
+  }
+
+  public void testWindowWidensWithBurstUpToMax()
+  {
+    PendingRefresh pending = new PendingRefresh( null, RefreshKind.MODIFICATION, 0 );
+    assertEquals( FileModificationManager.MIN_REFRESH_WINDOW_MS, pending.getWindow() );
+    long prior = pending.getWindow();
+    for( int i = 0; i < 10; i++ )
+    {
+      pending = pending.merge( null, RefreshKind.MODIFICATION );
+      assertTrue( pending.getWindow() >= prior );
+      prior = pending.getWindow();
+    }
+    assertEquals( FileModificationManager.MAX_REFRESH_WINDOW_MS, pending.getWindow() );
+  }
+}
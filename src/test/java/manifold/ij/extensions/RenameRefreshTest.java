@@ -0,0 +1,26 @@
+package manifold.ij.extensions;
+
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.vfs.VirtualFile;
+import manifold.ij.AbstractManifoldCodeInsightTest;
+import manifold.ij.core.ManModule;
+import manifold.ij.core.ManProject;
+import manifold.ij.util.SettleModalEventQueue;
+
+public class RenameRefreshTest extends AbstractManifoldCodeInsightTest
+{
+  public void testRenamedResourceReplacesType() throws Exception
+  {
+    VirtualFile person = myFixture.copyFileToProject( "json/sample/Person.json" );
+    ManModule module = ManProject.getModule( getModule() );
+    assertTrue( ManifoldPsiClassCache.getPsiClass( module, "json.sample.Person" ) instanceof ManifoldPsiClass );
+
+    WriteAction.run( () -> person.rename( this, "Human.json" ) );
+
+    // let the refresh of the renamed file finish (vfs events are resolved with invokeLater())
+    SettleModalEventQueue.instance().run();
+
+    assertNull( ManifoldPsiClassCache.getPsiClass( module, "json.sample.Person" ) );
+    assertTrue( ManifoldPsiClassCache.getPsiClass( module, "json.sample.Human" ) instanceof ManifoldPsiClass );
+  }
+}
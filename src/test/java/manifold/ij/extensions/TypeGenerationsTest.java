@@ -0,0 +1,68 @@
+package manifold.ij.extensions;
+
+import junit.framework.TestCase;
+
+public class TypeGenerationsTest extends TestCase
+{
+  public void testPublishWhenUnchanged()
+  {
+    TypeGenerations generations = new TypeGenerations( 8 );
+    int generation = generations.get( "abc.Foo" );
+    boolean[] ran = {false};
+    assertTrue( generations.publish( "abc.Foo", generation, () -> ran[0] = true ) );
+    assertTrue( ran[0] );
+  }
+
+  public void testRefreshDiscardsStaleType()
+  {
+    TypeGenerations generations = new TypeGenerations( 8 );
+    int generation = generations.get( "abc.Foo" );
+    generations.refreshed( "abc.Foo" );
+    boolean[] ran = {false};
+    assertFalse( generations.publish( "abc.Foo", generation, () -> ran[0] = true ) );
+    assertFalse( ran[0] );
+
+    // a type created after the refresh is published
+    assertTrue( generations.publish( "abc.Foo", generations.get( "abc.Foo" ), () -> ran[0] = true ) );
+    assertTrue( ran[0] );
+  }
+
+  public void testRefreshAllDiscardsEveryType()
+  {
+    TypeGenerations generations = new TypeGenerations( 8 );
+    int foo = generations.get( "abc.Foo" );
+    int bar = generations.get( "abc.Bar" );
+    int any = generations.getAny();
+    generations.refreshedAll();
+    assertFalse( generations.publish( "abc.Foo", foo, () -> {} ) );
+    assertFalse( generations.publish( "abc.Bar", bar, () -> {} ) );
+    assertFalse( generations.publishAny( any, () -> {} ) );
+  }
+
+  public void testMissDiscardedByAnyRefresh()
+  {
+    TypeGenerations generations = new TypeGenerations( 8 );
+    int any = generations.getAny();
+    generations.refreshed( "abc.Bar" );
+    assertFalse( generations.publishAny( any, () -> {} ) );
+    assertTrue( generations.publishAny( generations.getAny(), () -> {} ) );
+  }
+
+  public void testUnrelatedStripeUnaffected()
+  {
+    TypeGenerations generations = new TypeGenerations( 64 );
+    String foo = "abc.Foo";
+    String other = null;
+    for( int i = 0; other == null; i++ )
+    {
+      String name = "abc.Type" + i;
+      if( (name.hashCode() & 0x7fffffff) % 64 != (foo.hashCode() & 0x7fffffff) % 64 )
+      {
+        other = name;
+      }
+    }
+    int generation = generations.get( foo );
+    generations.refreshed( other );
+    assertTrue( generations.publish( foo, generation, () -> {} ) );
+  }
+}
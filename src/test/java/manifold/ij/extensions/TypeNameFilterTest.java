@@ -0,0 +1,66 @@
+package manifold.ij.extensions;
+
+import junit.framework.TestCase;
+
+public class TypeNameFilterTest extends TestCase
+{
+  public void testAddedNamesPass()
+  {
+    TypeNameFilter.Bloom bloom = new TypeNameFilter.Bloom( 100 );
+    for( int i = 0; i < 100; i++ )
+    {
+      bloom.add( "abc.def.Type" + i );
+    }
+    for( int i = 0; i < 100; i++ )
+    {
+      assertTrue( bloom.mightContainTypeOrEnclosing( "abc.def.Type" + i ) );
+    }
+  }
+
+  public void testNestedNamesPass()
+  {
+    TypeNameFilter.Bloom bloom = new TypeNameFilter.Bloom( 1 );
+    bloom.add( "abc.Person" );
+    assertTrue( bloom.mightContainTypeOrEnclosing( "abc.Person.Address" ) );
+    assertTrue( bloom.mightContainTypeOrEnclosing( "abc.Person.Address.Street" ) );
+  }
+
+  public void testUnrelatedNamesMostlyRejected()
+  {
+    TypeNameFilter.Bloom bloom = new TypeNameFilter.Bloom( 1000 );
+    for( int i = 0; i < 1000; i++ )
+    {
+      bloom.add( "abc.def.Type" + i );
+    }
+    int falsePositives = 0;
+    for( int i = 0; i < 10000; i++ )
+    {
+      if( bloom.mightContainTypeOrEnclosing( "java.util.Other" + i ) )
+      {
+        falsePositives++;
+      }
+    }
+    // sized for twice the names, the expected rate is well under 1%
+    assertTrue( "false positives: " + falsePositives, falsePositives < 200 );
+  }
+
+  public void testPrefixOfNameIsNotAMatch()
+  {
+    TypeNameFilter.Bloom bloom = new TypeNameFilter.Bloom( 1 );
+    bloom.add( "abc.Person" );
+    assertFalse( bloom.mightContainTypeOrEnclosing( "abc" ) );
+    assertFalse( bloom.mightContainTypeOrEnclosing( "abc.Pers" ) );
+  }
+
+  public void testOverfullAfterCapacity()
+  {
+    TypeNameFilter.Bloom bloom = new TypeNameFilter.Bloom( 1000 );
+    for( int i = 0; i < 2000; i++ )
+    {
+      bloom.add( "abc.Type" + i );
+    }
+    assertFalse( bloom.isOverfull() );
+    bloom.add( "abc.OneTooMany" );
+    assertTrue( bloom.isOverfull() );
+  }
+}
@@ -0,0 +1,79 @@
+package manifold.ij.fs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+public class CharSequenceInputStreamTest extends TestCase
+{
+  public void testEmpty() throws IOException
+  {
+    InputStream in = new CharSequenceInputStream( "", StandardCharsets.UTF_8 );
+    assertEquals( -1, in.read() );
+    assertEquals( -1, in.read( new byte[8], 0, 8 ) );
+  }
+
+  public void testAscii() throws IOException
+  {
+    assertEncoded( "package abc;\nclass Foo {}\n", StandardCharsets.UTF_8 );
+  }
+
+  public void testMultiByte() throws IOException
+  {
+    assertEncoded( "caf\u00e9 \u20ac \ud83d\ude00", StandardCharsets.UTF_8 );
+    assertEncoded( "caf\u00e9 \u20ac \ud83d\ude00", StandardCharsets.UTF_16LE );
+  }
+
+  public void testLargerThanBuffer() throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    for( int i = 0; i < 5000; i++ )
+    {
+      // a surrogate pair lands on every buffer boundary sooner or later
+      sb.append( "x\u00e9\ud83d\ude00" ).append( i );
+    }
+    assertEncoded( sb, StandardCharsets.UTF_8 );
+  }
+
+  public void testSingleByteReads() throws IOException
+  {
+    String text = "caf\u00e9";
+    InputStream in = new CharSequenceInputStream( text, StandardCharsets.UTF_8 );
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int b;
+    while( (b = in.read()) != -1 )
+    {
+      out.write( b );
+    }
+    assertEquals( text, new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+  }
+
+  public void testUnmappableIsReplaced() throws IOException
+  {
+    byte[] bytes = readAll( new CharSequenceInputStream( "a\u20acb", StandardCharsets.US_ASCII ) );
+    assertEquals( "a?b", new String( bytes, StandardCharsets.US_ASCII ) );
+  }
+
+  private static void assertEncoded( CharSequence text, Charset charset ) throws IOException
+  {
+    byte[] expected = text.toString().getBytes( charset );
+    byte[] actual = readAll( new CharSequenceInputStream( text, charset ) );
+    assertTrue( Arrays.equals( expected, actual ) );
+  }
+
+  private static byte[] readAll( InputStream in ) throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1000];
+    int count;
+    while( (count = in.read( buffer, 0, buffer.length )) != -1 )
+    {
+      out.write( buffer, 0, count );
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,121 @@
+package manifold.ij.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+public class DelayedRunnerTest extends TestCase
+{
+  private ScheduledExecutorService _executor;
+  private DelayedRunner _runner;
+
+  @Override
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    _executor = Executors.newScheduledThreadPool( 2 );
+    _runner = new DelayedRunner( _executor );
+  }
+
+  @Override
+  protected void tearDown() throws Exception
+  {
+    _executor.shutdownNow();
+    super.tearDown();
+  }
+
+  public void testRescheduleReplacesTask() throws Exception
+  {
+    AtomicInteger first = new AtomicInteger();
+    CountDownLatch second = new CountDownLatch( 1 );
+    _runner.scheduleTask( "a", 200, first::incrementAndGet );
+    _runner.scheduleTask( "a", 10, second::countDown );
+
+    assertTrue( second.await( 5, TimeUnit.SECONDS ) );
+    Thread.sleep( 400 );
+    assertEquals( 0, first.get() );
+    assertEquals( 1, _runner.getExecutedCount() );
+    assertEquals( 0, _runner.getQueueDepth() );
+  }
+
+  public void testDifferentKeysRunConcurrently() throws Exception
+  {
+    CountDownLatch bothStarted = new CountDownLatch( 2 );
+    Runnable task = () -> {
+      bothStarted.countDown();
+      await( bothStarted );
+    };
+    _runner.scheduleTask( "a", 0, task );
+    _runner.scheduleTask( "b", 0, task );
+
+    assertTrue( bothStarted.await( 5, TimeUnit.SECONDS ) );
+  }
+
+  public void testSameKeyNeverRunsConcurrently() throws Exception
+  {
+    CountDownLatch firstStarted = new CountDownLatch( 1 );
+    CountDownLatch releaseFirst = new CountDownLatch( 1 );
+    CountDownLatch secondDone = new CountDownLatch( 1 );
+    AtomicBoolean firstRunning = new AtomicBoolean();
+    AtomicBoolean overlapped = new AtomicBoolean();
+
+    _runner.scheduleTask( "a", 0, () -> {
+      firstRunning.set( true );
+      firstStarted.countDown();
+      await( releaseFirst );
+      firstRunning.set( false );
+    } );
+    assertTrue( firstStarted.await( 5, TimeUnit.SECONDS ) );
+
+    _runner.scheduleTask( "a", 0, () -> {
+      overlapped.set( firstRunning.get() );
+      secondDone.countDown();
+    } );
+    // the second task comes due while the first is running and must wait for it
+    assertFalse( secondDone.await( 200, TimeUnit.MILLISECONDS ) );
+    releaseFirst.countDown();
+
+    assertTrue( secondDone.await( 5, TimeUnit.SECONDS ) );
+    assertFalse( overlapped.get() );
+    assertEquals( 2, _runner.getExecutedCount() );
+  }
+
+  public void testTaskDueWhileRunningIsSuperseded() throws Exception
+  {
+    CountDownLatch firstStarted = new CountDownLatch( 1 );
+    CountDownLatch releaseFirst = new CountDownLatch( 1 );
+    CountDownLatch lastDone = new CountDownLatch( 1 );
+    AtomicInteger middle = new AtomicInteger();
+
+    _runner.scheduleTask( "a", 0, () -> {
+      firstStarted.countDown();
+      await( releaseFirst );
+    } );
+    assertTrue( firstStarted.await( 5, TimeUnit.SECONDS ) );
+    _runner.scheduleTask( "a", 0, middle::incrementAndGet );
+    Thread.sleep( 100 );
+    _runner.scheduleTask( "a", 0, lastDone::countDown );
+    Thread.sleep( 100 );
+    releaseFirst.countDown();
+
+    assertTrue( lastDone.await( 5, TimeUnit.SECONDS ) );
+    assertEquals( 0, middle.get() );
+    assertEquals( 0, _runner.getQueueDepth() );
+  }
+
+  private static void await( CountDownLatch latch )
+  {
+    try
+    {
+      latch.await( 5, TimeUnit.SECONDS );
+    }
+    catch( InterruptedException e )
+    {
+      throw new RuntimeException( e );
+    }
+  }
+}